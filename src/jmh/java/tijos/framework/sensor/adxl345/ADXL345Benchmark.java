@@ -0,0 +1,171 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * TiADXL345 benchmarks against ADXL345SimulatedDevice
+ * ns/op is reported by JMH, allocations/op with -prof gc and bus
+ * transactions/op by the busTransactionsPerOp counter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ADXL345Benchmark {
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class BusCounters {
+		public double busTransactionsPerOp;
+		public double busBytesPerOp;
+
+		long ops;
+
+		@Setup(Level.Iteration)
+		public void clean() {
+			this.ops = 0;
+		}
+	}
+
+	private ADXL345SimulatedDevice _sim;
+	private TiADXL345 _adxl;
+
+	private int[] _xyzi = new int[3];
+	private double[] _xyzd = new double[3];
+	private short[] _fifo = new short[TiADXL345.ADXL345_FIFO_MAX_ENTRIES * 3];
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this._sim = new ADXL345SimulatedDevice();
+		this._sim.setAcceleration(10, -20, 1000);
+		this._sim.setNoise(8);
+		this._adxl = new TiADXL345(this._sim);
+		this._adxl.set_bw(TiADXL345.ADXL345_BW_1600);
+		this._adxl.powerOn();
+		this._sim.step(1);
+	}
+
+	@Setup(Level.Iteration)
+	public void resetBus() {
+		this._sim.resetCounters();
+	}
+
+	@TearDown(Level.Iteration)
+	public void collect(BusCounters counters) {
+		if (counters.ops > 0) {
+			counters.busTransactionsPerOp = (double) this._sim.getTransactions() / counters.ops;
+			counters.busBytesPerOp = (double) (this._sim.getBytesRead() + this._sim.getBytesWritten()) / counters.ops;
+		}
+	}
+
+	@Benchmark
+	public int[] readXYZ(BusCounters counters) throws IOException {
+		counters.ops++;
+		return this._adxl.readXYZ();
+	}
+
+	@Benchmark
+	public int[] readXYZInto(BusCounters counters) throws IOException {
+		counters.ops++;
+		this._adxl.readXYZ(this._xyzi, 0);
+		return this._xyzi;
+	}
+
+	@Benchmark
+	public double[] readGxyz(BusCounters counters) throws IOException {
+		counters.ops++;
+		return this._adxl.readGxyz();
+	}
+
+	@Benchmark
+	public double[] readGxyzInto(BusCounters counters) throws IOException {
+		counters.ops++;
+		this._adxl.readGxyz(this._xyzd, 0);
+		return this._xyzd;
+	}
+
+	@Benchmark
+	public int[] readMilliG(BusCounters counters) throws IOException {
+		counters.ops++;
+		this._adxl.readMilliG(this._xyzi, 0);
+		return this._xyzi;
+	}
+
+	/**
+	 * Tap, activity and interrupt setup with the individual setters
+	 */
+	@Benchmark
+	public void configSetters(BusCounters counters) throws IOException {
+		counters.ops++;
+		TiADXL345 adxl = this._adxl;
+		adxl.setTapThreshold(48);
+		adxl.setTapDuration(16);
+		adxl.setDoubleTapLatency(80);
+		adxl.setDoubleTapWindow(200);
+		adxl.setActivityThreshold(16);
+		adxl.setInactivityThreshold(8);
+		adxl.setTimeInactivity(5);
+		adxl.setActivityX(true);
+		adxl.setActivityY(true);
+		adxl.setActivityZ(true);
+		adxl.setTapDetectionOnX(true);
+		adxl.setTapDetectionOnY(true);
+		adxl.setTapDetectionOnZ(true);
+		adxl.setInterrupt(TiADXL345.ADXL345_INT_SINGLE_TAP_BIT, true);
+		adxl.setInterrupt(TiADXL345.ADXL345_INT_DOUBLE_TAP_BIT, true);
+		adxl.setInterrupt(TiADXL345.ADXL345_INT_ACTIVITY_BIT, true);
+	}
+
+	/**
+	 * Same setup as configSetters in one transaction
+	 */
+	@Benchmark
+	public int configTransaction(BusCounters counters) throws IOException {
+		counters.ops++;
+		return this._adxl.beginTransaction()
+				.tapThreshold(48).tapDuration(16).doubleTapLatency(80).doubleTapWindow(200)
+				.activityThreshold(16).inactivityThreshold(8).timeInactivity(5)
+				.activityAxes(false, true, true, true)
+				.tapAxes(true, true, true)
+				.interrupt(TiADXL345.ADXL345_INT_SINGLE_TAP_BIT, true)
+				.interrupt(TiADXL345.ADXL345_INT_DOUBLE_TAP_BIT, true)
+				.interrupt(TiADXL345.ADXL345_INT_ACTIVITY_BIT, true)
+				.commit();
+	}
+
+	@State(Scope.Thread)
+	public static class FifoState {
+		@Setup(Level.Trial)
+		public void setup(ADXL345Benchmark bench) throws IOException {
+			bench._adxl.setFifo(TiADXL345.ADXL345_FIFO_STREAM, 16, TiADXL345.ADXL345_INT1_PIN);
+		}
+	}
+
+	/**
+	 * Drain of a 32 sample FIFO, the simulated time step is included
+	 */
+	@Benchmark
+	public void fifoDrain(FifoState fifo, BusCounters counters, Blackhole bh) throws IOException {
+		counters.ops++;
+		this._sim.step(32);
+		bh.consume(this._adxl.drainFifo(this._fifo, 0, TiADXL345.ADXL345_FIFO_MAX_ENTRIES));
+	}
+}
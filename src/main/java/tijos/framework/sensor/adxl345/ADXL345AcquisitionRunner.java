@@ -0,0 +1,156 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+import tijos.framework.util.Delay;
+
+/**
+ * Acquisition thread owning a TiADXL345
+ * The thread reads the sensor at a fixed cadence, the FIFO is drained once per
+ * watermark period, or one sample is read per output data period in bypass
+ * mode. The samples go to the sink, normally an ADXL345SampleQueue so that
+ * consumers on other threads never delay the sampling.
+ *
+ * Configure the rate and the FIFO before start, other threads must not use the
+ * driver while the runner is running.
+ *
+ *  eg: ADXL345SampleQueue queue = new ADXL345SampleQueue(1024, ADXL345SampleQueue.POLICY_DROP_OLDEST);
+ *      ADXL345AcquisitionRunner runner = new ADXL345AcquisitionRunner(adxl, queue);
+ *      runner.start();
+ *      // consumer thread
+ *      while (true) {
+ *          int n = queue.poll(xyz, 0, 64);
+ *          ...
+ *      }
+ */
+public class ADXL345AcquisitionRunner implements Runnable {
+
+	private TiADXL345 _adxl;
+	private ADXL345SampleListener _sink;
+
+	private short[] _samples = new short[TiADXL345.ADXL345_FIFO_MAX_ENTRIES * 3];
+
+	private boolean _fifo = false;
+	private long _interval; // micros
+
+	private volatile boolean _running = false;
+	private Thread _thread = null;
+
+	private volatile long _samplesRead = 0;
+	private volatile long _errors = 0;
+	private volatile long _lateCycles = 0;
+	private IOException _lastError = null;
+
+	/**
+	 * Initialize with the driver and the sample sink
+	 * @param adxl
+	 * @param sink  receives the samples on the acquisition thread
+	 */
+	public ADXL345AcquisitionRunner(TiADXL345 adxl, ADXL345SampleListener sink) {
+		this._adxl = adxl;
+		this._sink = sink;
+	}
+
+	/**
+	 * Read rate and FIFO setup and start the acquisition thread
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		if (this._running) {
+			return;
+		}
+		double rate = this._adxl.getRate();
+		int samples = 1;
+		this._fifo = this._adxl.getFifoMode() != TiADXL345.ADXL345_FIFO_BYPASS;
+		if (this._fifo) {
+			samples = this._adxl.getFifoSamples();
+			if (samples == 0) {
+				samples = 1;
+			}
+		}
+		this._interval = (long) (samples * 1000000 / rate) + 1;
+		this._running = true;
+		this._thread = new Thread(this);
+		this._thread.start();
+	}
+
+	/**
+	 * Stop the acquisition thread and wait for it to end
+	 */
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			this._running = false;
+			t = this._thread;
+			this._thread = null;
+		}
+		if ((t != null) && (t != Thread.currentThread())) {
+			try {
+				t.join();
+			} catch (InterruptedException ex) {
+			}
+		}
+	}
+
+	public boolean isRunning() {
+		return this._running;
+	}
+
+	/**
+	 * Acquisition loop, runs on the thread created by start
+	 */
+	public void run() {
+		long next = System.nanoTime() / 1000;
+		while (this._running) {
+			try {
+				int n;
+				if (this._fifo) {
+					n = this._adxl.drainFifo(this._samples, 0, TiADXL345.ADXL345_FIFO_MAX_ENTRIES);
+				} else {
+					this._adxl.readSamples(this._samples, 0, 1);
+					n = 1;
+				}
+				if (n > 0) {
+					this._samplesRead += n;
+					this._sink.onSamples(this._samples, 0, n, System.nanoTime() / 1000);
+				}
+			} catch (IOException ex) {
+				this._errors++;
+				this._lastError = ex;
+			}
+
+			next += this._interval;
+			long now = System.nanoTime() / 1000;
+			if (next < now) {
+				this._lateCycles++;
+				next = now; // do not pile up
+			} else if (next - now >= 1000) {
+				Delay.msDelay((int) ((next - now) / 1000));
+			}
+		}
+	}
+
+	public long getSamplesRead() {
+		return this._samplesRead;
+	}
+
+	/**
+	 * Read errors of the acquisition thread
+	 * @return
+	 */
+	public long getErrors() {
+		return this._errors;
+	}
+
+	public IOException getLastError() {
+		return this._lastError;
+	}
+
+	/**
+	 * Cycles that started after their deadline
+	 * @return
+	 */
+	public long getLateCycles() {
+		return this._lateCycles;
+	}
+}
@@ -0,0 +1,207 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+import tijos.framework.devicecenter.TiI2CMaster;
+
+/**
+ * Reads several TiADXL345 sensors sharing a bus
+ * Every sensor has its own sample listener, its FIFO is drained when it is
+ * scheduled. Bus transactions of the sensors are serialized by the transport.
+ *
+ * SCHEDULE_ROUND_ROBIN: every poll services all sensors in turn
+ * SCHEDULE_DEADLINE: every sensor is serviced once per interval, earliest
+ * deadline first, the interval is the time to fill the FIFO to the watermark
+ *
+ * A sensor with the FIFO in bypass mode is read only when DATA_READY is set,
+ * the INT_SOURCE read also clears its other latched events.
+ *
+ *  eg: ADXL345BusManager bus = new ADXL345BusManager(i2c, 2, ADXL345BusManager.SCHEDULE_DEADLINE);
+ *      TiADXL345 a = bus.addSensor(TiADXL345.ADXL345_I2C_ADDRESS, listenerA);
+ *      TiADXL345 b = bus.addSensor(TiADXL345.ADXL345_I2C_ADDRESS_ALT, listenerB);
+ *      // configure a and b, FIFO in stream mode, then
+ *      bus.updateIntervals();
+ *      while (true) {
+ *          long wait = bus.poll();
+ *          Delay.msDelay((int) (wait / 1000));
+ *      }
+ */
+public class ADXL345BusManager {
+
+	public static final int SCHEDULE_ROUND_ROBIN = 0;
+	public static final int SCHEDULE_DEADLINE = 1;
+
+	private TiI2CMaster _i2c = null;
+	private int _schedule;
+
+	private TiADXL345[] _sensors;
+	private ADXL345SampleListener[] _listeners;
+	private boolean[] _fifo;
+	private long[] _interval; // micros
+	private long[] _deadline; // micros
+	private long[] _samplesRead;
+	private int _count = 0;
+
+	private short[] _samples = new short[TiADXL345.ADXL345_FIFO_MAX_ENTRIES * 3];
+
+	/**
+	 * Initialize with the shared I2C object
+	 * @param i2c
+	 * @param maxSensors
+	 * @param schedule SCHEDULE_ROUND_ROBIN or SCHEDULE_DEADLINE
+	 */
+	public ADXL345BusManager(TiI2CMaster i2c, int maxSensors, int schedule) {
+		this._i2c = i2c;
+		this._schedule = schedule;
+		this._sensors = new TiADXL345[maxSensors];
+		this._listeners = new ADXL345SampleListener[maxSensors];
+		this._fifo = new boolean[maxSensors];
+		this._interval = new long[maxSensors];
+		this._deadline = new long[maxSensors];
+		this._samplesRead = new long[maxSensors];
+	}
+
+	/**
+	 * Create a driver for the sensor at address on the shared bus
+	 * @param address ADXL345_I2C_ADDRESS or ADXL345_I2C_ADDRESS_ALT
+	 * @param listener
+	 * @return driver of the sensor
+	 * @throws IOException
+	 */
+	public TiADXL345 addSensor(int address, ADXL345SampleListener listener) throws IOException {
+		TiADXL345 adxl = new TiADXL345(this._i2c, address);
+		this.addSensor(adxl, listener);
+		return adxl;
+	}
+
+	/**
+	 * Add an existing driver, eg. a sensor on another transport
+	 * @param adxl
+	 * @param listener
+	 * @return index of the sensor
+	 * @throws IOException
+	 */
+	public int addSensor(TiADXL345 adxl, ADXL345SampleListener listener) throws IOException {
+		if (this._count == this._sensors.length) {
+			throw new IllegalArgumentException("too many sensors");
+		}
+		int i = this._count;
+		this._sensors[i] = adxl;
+		this._listeners[i] = listener;
+		this._count++;
+		this.updateInterval(i);
+		return i;
+	}
+
+	public int getSensorCount() {
+		return this._count;
+	}
+
+	public TiADXL345 getSensor(int index) {
+		return this._sensors[index];
+	}
+
+	/**
+	 * Gets the number of samples passed to the listener of a sensor
+	 * @param index
+	 * @return
+	 */
+	public long getSamplesRead(int index) {
+		return this._samplesRead[index];
+	}
+
+	/**
+	 * Read rate and FIFO setup of a sensor and compute its service interval,
+	 * call it after changing the rate or FIFO of the sensor
+	 * @param index
+	 * @throws IOException
+	 */
+	public void updateInterval(int index) throws IOException {
+		TiADXL345 adxl = this._sensors[index];
+		double rate = adxl.getRate();
+		int samples = 1;
+		this._fifo[index] = adxl.getFifoMode() != TiADXL345.ADXL345_FIFO_BYPASS;
+		if (this._fifo[index]) {
+			samples = adxl.getFifoSamples();
+			if (samples == 0) {
+				samples = 1;
+			}
+		}
+		this._interval[index] = (long) (samples * 1000000 / rate) + 1;
+		this._deadline[index] = System.nanoTime() / 1000 + this._interval[index];
+	}
+
+	public void updateIntervals() throws IOException {
+		for (int i = 0; i < this._count; i++) {
+			this.updateInterval(i);
+		}
+	}
+
+	/**
+	 * Sets the service interval of a sensor
+	 * @param index
+	 * @param micros
+	 */
+	public void setInterval(int index, long micros) {
+		this._interval[index] = micros;
+		this._deadline[index] = System.nanoTime() / 1000 + micros;
+	}
+
+	/**
+	 * Service the sensors according to the schedule
+	 * @return micros until the next deadline, 0 in round robin mode
+	 * @throws IOException
+	 */
+	public long poll() throws IOException {
+		if (this._schedule == SCHEDULE_ROUND_ROBIN) {
+			for (int i = 0; i < this._count; i++) {
+				this.service(i);
+			}
+			return 0;
+		}
+
+		while (true) {
+			long now = System.nanoTime() / 1000;
+			int next = -1;
+			for (int i = 0; i < this._count; i++) {
+				if ((next < 0) || (this._deadline[i] < this._deadline[next])) {
+					next = i;
+				}
+			}
+			if (next < 0) {
+				return 0;
+			}
+			if (this._deadline[next] > now) {
+				return this._deadline[next] - now;
+			}
+
+			this.service(next);
+			this._deadline[next] += this._interval[next];
+			if (this._deadline[next] < now) {
+				this._deadline[next] = now + this._interval[next]; // overloaded, do not pile up
+			}
+		}
+	}
+
+	/**
+	 * Read the samples of one sensor and pass them to its listener
+	 * @param index
+	 * @throws IOException
+	 */
+	private void service(int index) throws IOException {
+		TiADXL345 adxl = this._sensors[index];
+		int n;
+		if (this._fifo[index]) {
+			n = adxl.drainFifo(this._samples, 0, TiADXL345.ADXL345_FIFO_MAX_ENTRIES);
+		} else if (((adxl.getInterruptSource() >> TiADXL345.ADXL345_INT_DATA_READY_BIT) & 1) != 0) {
+			adxl.readSamples(this._samples, 0, 1);
+			n = 1;
+		} else {
+			n = 0; // the data registers still hold the sample already read
+		}
+		if (n > 0) {
+			this._samplesRead[index] += n;
+			this._listeners[index].onSamples(this._samples, 0, n, System.nanoTime() / 1000);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Offset and gain calibration of a TiADXL345
+ *
+ * Offsets: the sensor lies at rest in a known orientation, N samples are
+ * averaged and the error against the expected acceleration is written to
+ * OFSX, OFSY and OFSZ (15.6 mg/LSB) in one burst, on top of the current offsets.
+ *
+ * Gains, optional: every axis to correct is measured pointing up (+1 g) and
+ * down (-1 g), the gain correction is 2 g divided by the measured difference.
+ *
+ *  eg: ADXL345Calibration cal = new ADXL345Calibration(adxl, 64);
+ *      cal.calibrateOffsets(0, 0, 1000);   // flat, z up
+ *      byte[] stored = cal.getProfile().toBytes();
+ */
+public class ADXL345Calibration {
+
+	/* OFSx scale factor, 15.6 mg/LSB, in micro-g */
+	private static final int ADXL345_OFS_UG_PER_LSB = 15600;
+
+	private TiADXL345 _adxl;
+	private int _samples;
+
+	private int[] _offsets = new int[3];
+	private int[] _gains = new int[3];
+	private int[] _plus = new int[3]; // milli-g at +1 g
+	private int[] _minus = new int[3]; // milli-g at -1 g
+	private int _measured = 0; // bit 2*axis: +1 g done, bit 2*axis+1: -1 g done
+
+	private int[] _avg = new int[3];
+
+	/**
+	 * Initialize with the driver and the number of samples to average
+	 * @param adxl
+	 * @param samples
+	 * @throws IOException
+	 */
+	public ADXL345Calibration(TiADXL345 adxl, int samples) throws IOException {
+		this._adxl = adxl;
+		this._samples = samples;
+		adxl.getAxisOffset(this._offsets, 0);
+		for (int i = 0; i < 3; i++) {
+			this._gains[i] = ADXL345CalibrationProfile.ADXL345_GAIN_ONE;
+		}
+	}
+
+	/**
+	 * Average the samples at rest and write the offsets that bring the output
+	 * to the expected acceleration
+	 * @param x  expected acceleration in milli-g, eg. 0, 0, 1000 when flat
+	 * @param y
+	 * @param z
+	 * @throws IOException
+	 */
+	public void calibrateOffsets(int x, int y, int z) throws IOException {
+		this._adxl.getAxisOffset(this._offsets, 0);
+		this.measure(this._avg);
+		int[] expected = { x, y, z };
+		for (int i = 0; i < 3; i++) {
+			int error = (this._avg[i] - expected[i]) * 1000; // micro-g
+			int ofs = this._offsets[i] - divRound(error, ADXL345_OFS_UG_PER_LSB);
+			if (ofs > 127) {
+				ofs = 127;
+			} else if (ofs < -128) {
+				ofs = -128;
+			}
+			this._offsets[i] = ofs;
+		}
+		this._adxl.setAxisOffset(this._offsets[0], this._offsets[1], this._offsets[2]);
+	}
+
+	/**
+	 * Measure one gain point, the axis must point up (+1 g) or down (-1 g).
+	 * The gain correction of the axis is updated once both points are measured.
+	 * @param axis  0: x, 1: y, 2: z
+	 * @param up  true when the axis points up
+	 * @throws IOException
+	 */
+	public void measureGainPoint(int axis, boolean up) throws IOException {
+		this.measure(this._avg);
+		if (up) {
+			this._plus[axis] = this._avg[axis];
+			this._measured |= 1 << (axis * 2);
+		} else {
+			this._minus[axis] = this._avg[axis];
+			this._measured |= 2 << (axis * 2);
+		}
+		int span = this._plus[axis] - this._minus[axis];
+		if ((((this._measured >> (axis * 2)) & 3) == 3) && (span > 0)) {
+			this._gains[axis] = (int) ((2000L * ADXL345CalibrationProfile.ADXL345_GAIN_ONE + span / 2) / span);
+		}
+	}
+
+	/**
+	 * Gets the calibration result
+	 * @return
+	 */
+	public ADXL345CalibrationProfile getProfile() {
+		return new ADXL345CalibrationProfile(this._offsets, this._gains);
+	}
+
+	/**
+	 * Average samples in milli-g at the nominal scale of the current range
+	 */
+	private void measure(int[] dst) throws IOException {
+		this._adxl.readAverage(this._samples, dst, 0);
+		int scale = (int) (this._adxl.getScale() * 1000000 + 0.5); // micro-g per count
+		for (int i = 0; i < 3; i++) {
+			dst[i] = divRound(dst[i] * scale, 1000);
+		}
+	}
+
+	private static int divRound(int sum, int n) {
+		return (sum >= 0) ? (sum + n / 2) / n : -((-sum + n / 2) / n);
+	}
+}
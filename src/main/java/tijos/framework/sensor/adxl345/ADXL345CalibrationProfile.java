@@ -0,0 +1,134 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Calibration result of one sensor: OFSX, OFSY, OFSZ register values and a
+ * software gain correction per axis
+ * The profile serializes to 18 bytes so it can be stored and re-applied at
+ * boot without calibrating again.
+ *
+ *  eg: byte[] stored = profile.toBytes();
+ *      ...
+ *      ADXL345CalibrationProfile.fromBytes(stored, 0).apply(adxl);
+ */
+public class ADXL345CalibrationProfile {
+
+	public static final int ADXL345_PROFILE_SIZE = 18;
+
+	private static final int ADXL345_PROFILE_MAGIC = 0xA3;
+	private static final int ADXL345_PROFILE_VERSION = 1;
+
+	/* gain correction 1.0 in Q16 */
+	public static final int ADXL345_GAIN_ONE = 65536;
+
+	private int[] _offsets = new int[3];
+	private int[] _gains = new int[3];
+
+	/**
+	 * Initialize with offset register values and gain corrections
+	 * @param offsets  OFSX, OFSY, OFSZ, -128 to 127, 15.6 mg/LSB
+	 * @param gains  gain correction per axis in Q16, ADXL345_GAIN_ONE for none
+	 */
+	public ADXL345CalibrationProfile(int[] offsets, int[] gains) {
+		for (int i = 0; i < 3; i++) {
+			if ((offsets[i] < -128) || (offsets[i] > 127)) {
+				throw new IllegalArgumentException("offset range overflow");
+			}
+			this._offsets[i] = offsets[i];
+			this._gains[i] = gains[i];
+		}
+	}
+
+	/**
+	 * Gets the offset register value of an axis
+	 * @param axis  0: x, 1: y, 2: z
+	 * @return
+	 */
+	public int getOffset(int axis) {
+		return this._offsets[axis];
+	}
+
+	/**
+	 * Gets the gain correction of an axis in Q16
+	 * @param axis  0: x, 1: y, 2: z
+	 * @return
+	 */
+	public int getGain(int axis) {
+		return this._gains[axis];
+	}
+
+	/**
+	 * Write the offsets in one burst and set the axis gains to the scale of
+	 * the current range times the gain correction.
+	 * Apply the profile again after changing range or resolution.
+	 * @param adxl
+	 * @throws IOException
+	 */
+	public void apply(TiADXL345 adxl) throws IOException {
+		adxl.setAxisOffset(this._offsets[0], this._offsets[1], this._offsets[2]);
+		double scale = adxl.getScale();
+		double[] gains = new double[3];
+		for (int i = 0; i < 3; i++) {
+			gains[i] = scale * this._gains[i] / ADXL345_GAIN_ONE;
+		}
+		adxl.setAxisGains(gains);
+	}
+
+	/**
+	 * Serialize the profile
+	 * magic, version, 3 offsets, 3 gains big endian, checksum
+	 * @return ADXL345_PROFILE_SIZE bytes
+	 */
+	public byte[] toBytes() {
+		byte[] b = new byte[ADXL345_PROFILE_SIZE];
+		this.toBytes(b, 0);
+		return b;
+	}
+
+	public void toBytes(byte[] dst, int offset) {
+		dst[offset] = (byte) ADXL345_PROFILE_MAGIC;
+		dst[offset + 1] = (byte) ADXL345_PROFILE_VERSION;
+		for (int i = 0; i < 3; i++) {
+			dst[offset + 2 + i] = (byte) this._offsets[i];
+			int g = this._gains[i];
+			int p = offset + 5 + i * 4;
+			dst[p] = (byte) (g >> 24);
+			dst[p + 1] = (byte) (g >> 16);
+			dst[p + 2] = (byte) (g >> 8);
+			dst[p + 3] = (byte) g;
+		}
+		dst[offset + ADXL345_PROFILE_SIZE - 1] = (byte) checksum(dst, offset);
+	}
+
+	/**
+	 * Parse a serialized profile
+	 * @param src
+	 * @param offset
+	 * @return
+	 */
+	public static ADXL345CalibrationProfile fromBytes(byte[] src, int offset) {
+		if (((src[offset] & 0xff) != ADXL345_PROFILE_MAGIC) || (src[offset + 1] != ADXL345_PROFILE_VERSION)) {
+			throw new IllegalArgumentException("not an ADXL345 calibration profile");
+		}
+		if ((src[offset + ADXL345_PROFILE_SIZE - 1] & 0xff) != checksum(src, offset)) {
+			throw new IllegalArgumentException("calibration profile checksum error");
+		}
+		int[] offsets = new int[3];
+		int[] gains = new int[3];
+		for (int i = 0; i < 3; i++) {
+			offsets[i] = src[offset + 2 + i];
+			int p = offset + 5 + i * 4;
+			gains[i] = (src[p] << 24) | ((src[p + 1] & 0xff) << 16) | ((src[p + 2] & 0xff) << 8) | (src[p + 3] & 0xff);
+		}
+		return new ADXL345CalibrationProfile(offsets, gains);
+	}
+
+	private static int checksum(byte[] b, int offset) {
+		int sum = 0;
+		for (int i = 0; i < ADXL345_PROFILE_SIZE - 1; i++) {
+			sum += b[offset + i] & 0xff;
+		}
+		return (~sum) & 0xff;
+	}
+}
@@ -0,0 +1,15 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Receives the waveforms captured by ADXL345TriggerCapture
+ *
+ */
+public interface ADXL345CaptureListener {
+
+	/**
+	 * Called when the post-trigger window is complete, the capture is re-armed
+	 * after the call returns and its buffer is reused
+	 * @param capture  samples and timestamps of the waveform
+	 */
+	void onCapture(ADXL345TriggerCapture capture);
+}
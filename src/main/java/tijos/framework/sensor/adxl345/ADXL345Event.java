@@ -0,0 +1,84 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Interrupt event decoded by ADXL345EventEngine
+ * Event objects belong to the pool of the engine and are reused for the next
+ * interrupt, copy the fields to keep them after the listener returns.
+ */
+public class ADXL345Event {
+
+	/* event types, same as the bit of the interrupt in INT_SOURCE */
+	public static final int SINGLE_TAP = TiADXL345.ADXL345_INT_SINGLE_TAP_BIT;
+	public static final int DOUBLE_TAP = TiADXL345.ADXL345_INT_DOUBLE_TAP_BIT;
+	public static final int ACTIVITY = TiADXL345.ADXL345_INT_ACTIVITY_BIT;
+	public static final int INACTIVITY = TiADXL345.ADXL345_INT_INACTIVITY_BIT;
+	public static final int FREE_FALL = TiADXL345.ADXL345_INT_FREE_FALL_BIT;
+	public static final int WATERMARK = TiADXL345.ADXL345_INT_WATERMARK_BIT;
+	public static final int OVERRUN = TiADXL345.ADXL345_INT_OVERRUNY_BIT;
+
+	/* source axes */
+	public static final int AXIS_X = 0x04;
+	public static final int AXIS_Y = 0x02;
+	public static final int AXIS_Z = 0x01;
+
+	int _type;
+	int _axes;
+	boolean _asleep;
+	long _timestamp;
+
+	ADXL345Event() {
+	}
+
+	void set(int type, int axes, boolean asleep, long timestamp) {
+		this._type = type;
+		this._axes = axes;
+		this._asleep = asleep;
+		this._timestamp = timestamp;
+	}
+
+	/**
+	 * Event type, SINGLE_TAP, DOUBLE_TAP, ACTIVITY, INACTIVITY, FREE_FALL,
+	 * WATERMARK or OVERRUN
+	 * @return
+	 */
+	public int getType() {
+		return this._type;
+	}
+
+	/**
+	 * Source axes of tap and activity events from ACT_TAP_STATUS, 0 for other
+	 * events
+	 * @return AXIS_X | AXIS_Y | AXIS_Z
+	 */
+	public int getAxes() {
+		return this._axes;
+	}
+
+	public boolean isOnX() {
+		return (this._axes & AXIS_X) != 0;
+	}
+
+	public boolean isOnY() {
+		return (this._axes & AXIS_Y) != 0;
+	}
+
+	public boolean isOnZ() {
+		return (this._axes & AXIS_Z) != 0;
+	}
+
+	/**
+	 * Asleep bit of ACT_TAP_STATUS when the event was read
+	 * @return
+	 */
+	public boolean isAsleep() {
+		return this._asleep;
+	}
+
+	/**
+	 * Time the interrupt was read in microseconds, System.nanoTime() / 1000
+	 * @return
+	 */
+	public long getTimestamp() {
+		return this._timestamp;
+	}
+}
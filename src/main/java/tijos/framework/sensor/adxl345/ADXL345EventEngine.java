@@ -0,0 +1,140 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Decodes the interrupts of TiADXL345 into typed events
+ * Every interrupt costs one burst read of ACT_TAP_STATUS to INT_SOURCE, the tap
+ * and activity axes are captured before INT_SOURCE clears the interrupts.
+ * Single tap, double tap, activity, inactivity, free-fall, watermark and
+ * overrun are delivered to the listeners registered for them, DATA_READY is
+ * left to the sample acquisition. The other events are delivered only when
+ * their interrupt is enabled. WATERMARK and OVERRUN are delivered whenever the
+ * device sets them, even with their interrupt disabled, so an overrun is never
+ * lost to this read. They are not cleared by INT_SOURCE, and are reported on
+ * every poll until the FIFO is read.
+ *
+ * Events come from a pool allocated at construction, one per event type.
+ *
+ *  eg: ADXL345EventEngine events = new ADXL345EventEngine(adxl, 2);
+ *      events.addListener(tapListener, (1 << ADXL345Event.SINGLE_TAP) | (1 << ADXL345Event.DOUBLE_TAP));
+ *      // in the GPIO event handler of the INT1 pin
+ *      events.onPinEvent(TiADXL345.ADXL345_INT1_PIN);
+ */
+public class ADXL345EventEngine implements ADXL345PinEventListener {
+
+	private static final int EVENT_TYPES = TiADXL345.ADXL345_INT_SINGLE_TAP_BIT + 1;
+
+	/* interrupts delivered as events, all but DATA_READY */
+	private static final int EVENT_MASK = (1 << EVENT_TYPES) - 1;
+
+	/* FIFO status bits, delivered whether their interrupts are enabled or not */
+	private static final int FIFO_EVENTS = (1 << TiADXL345.ADXL345_INT_WATERMARK_BIT)
+			| (1 << TiADXL345.ADXL345_INT_OVERRUNY_BIT);
+
+	private TiADXL345 _adxl;
+
+	private ADXL345EventListener[] _listeners;
+	private int[] _masks;
+	private int _count = 0;
+
+	private ADXL345Event[] _pool = new ADXL345Event[EVENT_TYPES];
+	private long[] _events = new long[EVENT_TYPES];
+
+	/**
+	 * Initialize with the driver
+	 * @param adxl
+	 * @param maxListeners
+	 */
+	public ADXL345EventEngine(TiADXL345 adxl, int maxListeners) {
+		this._adxl = adxl;
+		this._listeners = new ADXL345EventListener[maxListeners];
+		this._masks = new int[maxListeners];
+		for (int i = 0; i < EVENT_TYPES; i++) {
+			this._pool[i] = new ADXL345Event();
+		}
+	}
+
+	/**
+	 * Register a listener
+	 * @param listener
+	 * @param eventMask  bit per event type, eg. 1 << ADXL345Event.FREE_FALL
+	 */
+	public synchronized void addListener(ADXL345EventListener listener, int eventMask) {
+		if (this._count == this._listeners.length) {
+			throw new IllegalArgumentException("too many listeners");
+		}
+		this._listeners[this._count] = listener;
+		this._masks[this._count] = eventMask;
+		this._count++;
+	}
+
+	public synchronized void removeListener(ADXL345EventListener listener) {
+		for (int i = 0; i < this._count; i++) {
+			if (this._listeners[i] == listener) {
+				this._count--;
+				this._listeners[i] = this._listeners[this._count];
+				this._masks[i] = this._masks[this._count];
+				this._listeners[this._count] = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of events of a type delivered so far
+	 * @param type  ADXL345Event type
+	 * @return
+	 */
+	public synchronized long getEventCount(int type) {
+		return this._events[type];
+	}
+
+	/**
+	 * Read the interrupt on a pin event
+	 */
+	public void onPinEvent(int interruptPin) throws IOException {
+		this.poll();
+	}
+
+	/**
+	 * Read and decode the pending interrupts, can also be called without pin
+	 * events
+	 * @return number of events delivered
+	 * @throws IOException
+	 */
+	public synchronized int poll() throws IOException {
+		int status = this._adxl.readInterruptStatus();
+		long timestamp = System.nanoTime() / 1000;
+
+		int actTap = status >> 16;
+		// WATERMARK and OVERRUN are set even when their interrupts are disabled
+		int enabled = ((status >> 8) & 0xff) | FIFO_EVENTS;
+		int source = status & enabled & EVENT_MASK;
+		boolean asleep = (actTap & 0x08) != 0;
+
+		int n = 0;
+		for (int type = EVENT_TYPES - 1; type >= 0; type--) {
+			if (((source >> type) & 1) == 0) {
+				continue;
+			}
+			int axes = 0;
+			if ((type == ADXL345Event.SINGLE_TAP) || (type == ADXL345Event.DOUBLE_TAP)) {
+				axes = actTap & 0x07;
+			} else if (type == ADXL345Event.ACTIVITY) {
+				axes = (actTap >> 4) & 0x07;
+			}
+			ADXL345Event event = this._pool[type];
+			event.set(type, axes, asleep, timestamp);
+			this._events[type]++;
+			n++;
+
+			for (int i = 0; i < this._count; i++) {
+				if (((this._masks[i] >> type) & 1) != 0) {
+					this._listeners[i].onEvent(event);
+				}
+			}
+		}
+		return n;
+	}
+}
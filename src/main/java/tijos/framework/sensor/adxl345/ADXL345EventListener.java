@@ -0,0 +1,15 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Receives interrupt events decoded by ADXL345EventEngine
+ *
+ */
+public interface ADXL345EventListener {
+
+	/**
+	 * Called for every event, the event object is reused and must not be kept
+	 * after the call returns
+	 * @param event
+	 */
+	void onEvent(ADXL345Event event);
+}
@@ -0,0 +1,32 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Streaming filter stage over blocks of interleaved x, y, z counts
+ * A stage processes a whole block in place, integer arithmetic only, and keeps
+ * its state between blocks. Stages are chained with ADXL345FilterChain.
+ */
+public abstract class ADXL345Filter {
+
+	/**
+	 * Filter count samples in place
+	 * @param xyz  interleaved x, y, z counts
+	 * @param offset  index of the first x value
+	 * @param count  number of samples
+	 */
+	public abstract void process(short[] xyz, int offset, int count);
+
+	/**
+	 * Forget the filter state, the next sample starts from scratch
+	 */
+	public abstract void reset();
+
+	static short clip(int v) {
+		if (v > Short.MAX_VALUE) {
+			return Short.MAX_VALUE;
+		}
+		if (v < Short.MIN_VALUE) {
+			return Short.MIN_VALUE;
+		}
+		return (short) v;
+	}
+}
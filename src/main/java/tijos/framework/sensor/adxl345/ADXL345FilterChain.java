@@ -0,0 +1,51 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Runs a block of samples through filter stages and passes the result on
+ * Every stage filters the whole block in place before the next stage runs,
+ * the sample array of the producer is modified.
+ *
+ *  eg: ADXL345FilterChain chain = new ADXL345FilterChain(new ADXL345Filter[] {
+ *              new ADXL345MedianFilter(5), new ADXL345LowPassFilter(3) }, ring);
+ *      ADXL345InterruptAcquisition acq = new ADXL345InterruptAcquisition(adxl, chain);
+ */
+public class ADXL345FilterChain implements ADXL345SampleListener {
+
+	private ADXL345Filter[] _stages;
+	private ADXL345SampleListener _listener;
+
+	/**
+	 * Initialize with stages and the listener of the filtered samples
+	 * @param stages
+	 * @param listener  can be null when process is called directly
+	 */
+	public ADXL345FilterChain(ADXL345Filter[] stages, ADXL345SampleListener listener) {
+		this._stages = stages;
+		this._listener = listener;
+	}
+
+	/**
+	 * Filter a block in place
+	 * @param xyz
+	 * @param offset
+	 * @param count
+	 */
+	public void process(short[] xyz, int offset, int count) {
+		for (int i = 0; i < this._stages.length; i++) {
+			this._stages[i].process(xyz, offset, count);
+		}
+	}
+
+	public void onSamples(short[] xyz, int offset, int count, long timestamp) {
+		this.process(xyz, offset, count);
+		if (this._listener != null) {
+			this._listener.onSamples(xyz, offset, count, timestamp);
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < this._stages.length; i++) {
+			this._stages[i].reset();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * First order IIR high-pass filter: x minus the low-pass of x
+ * Removes gravity and slow drift, the cut-off frequency is about
+ * rate / (2 * pi * 2^shift).
+ */
+public class ADXL345HighPassFilter extends ADXL345Filter {
+
+	private int _shift;
+	private int _sx, _sy, _sz; // Q8
+	private boolean _primed = false;
+
+	/**
+	 * Initialize with the smoothing factor of the removed low-pass part
+	 * @param shift  1 to 15, larger keeps lower frequencies
+	 */
+	public ADXL345HighPassFilter(int shift) {
+		if ((shift < 1) || (shift > 15)) {
+			throw new IllegalArgumentException("shift range overflow");
+		}
+		this._shift = shift;
+	}
+
+	public void process(short[] xyz, int offset, int count) {
+		if (count <= 0) {
+			return;
+		}
+		int k = this._shift;
+		int sx = this._sx;
+		int sy = this._sy;
+		int sz = this._sz;
+		if (!this._primed) {
+			sx = xyz[offset] << 8;
+			sy = xyz[offset + 1] << 8;
+			sz = xyz[offset + 2] << 8;
+			this._primed = true;
+		}
+		int end = offset + count * 3;
+		for (int i = offset; i < end; i += 3) {
+			int x = xyz[i] << 8;
+			int y = xyz[i + 1] << 8;
+			int z = xyz[i + 2] << 8;
+			sx += (x - sx) >> k;
+			sy += (y - sy) >> k;
+			sz += (z - sz) >> k;
+			xyz[i] = clip((x - sx + 128) >> 8);
+			xyz[i + 1] = clip((y - sy + 128) >> 8);
+			xyz[i + 2] = clip((z - sz + 128) >> 8);
+		}
+		this._sx = sx;
+		this._sy = sy;
+		this._sz = sz;
+	}
+
+	public void reset() {
+		this._primed = false;
+	}
+}
@@ -0,0 +1,50 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+import tijos.framework.devicecenter.TiI2CMaster;
+
+/**
+ * I2C register access of the ADXL345
+ * Transactions are serialized on the TiI2CMaster object, so several drivers
+ * and other devices can share one bus.
+ */
+public class ADXL345I2CTransport implements ADXL345Transport {
+
+	private TiI2CMaster _i2c = null;
+	private int _address = TiADXL345.ADXL345_I2C_ADDRESS;
+
+	/**
+	 * Initialize with I2C object, device address 0x53
+	 * @param i2c
+	 */
+	public ADXL345I2CTransport(TiI2CMaster i2c) {
+		this(i2c, TiADXL345.ADXL345_I2C_ADDRESS);
+	}
+
+	/**
+	 * Initialize with I2C object and device address
+	 * @param i2c
+	 * @param address ADXL345_I2C_ADDRESS or ADXL345_I2C_ADDRESS_ALT
+	 */
+	public ADXL345I2CTransport(TiI2CMaster i2c, int address) {
+		this._i2c = i2c;
+		this._address = address;
+	}
+
+	public int getAddress() {
+		return this._address;
+	}
+
+	public void read(int address, byte[] buff, int off, int num) throws IOException {
+		synchronized (this._i2c) {
+			this._i2c.read(this._address, address, buff, off, num);
+		}
+	}
+
+	public void write(int address, byte[] buff, int off, int num) throws IOException {
+		synchronized (this._i2c) {
+			this._i2c.write(this._address, address, buff, off, num);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Transport decorator counting transactions, bytes and latency per register
+ * class into ADXL345Metrics. Leave it out to measure nothing.
+ */
+public class ADXL345InstrumentedTransport implements ADXL345Transport {
+
+	private ADXL345Transport _transport;
+	private ADXL345Metrics _metrics;
+
+	/**
+	 * Initialize with the transport to measure
+	 * @param transport
+	 * @param metrics
+	 */
+	public ADXL345InstrumentedTransport(ADXL345Transport transport, ADXL345Metrics metrics) {
+		this._transport = transport;
+		this._metrics = metrics;
+	}
+
+	public ADXL345Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	public void read(int address, byte[] buff, int off, int num) throws IOException {
+		long start = System.nanoTime();
+		boolean error = true;
+		try {
+			this._transport.read(address, buff, off, num);
+			error = false;
+		} finally {
+			this._metrics.recordTransaction(address, num, false, (System.nanoTime() - start) / 1000, error);
+		}
+	}
+
+	public void write(int address, byte[] buff, int off, int num) throws IOException {
+		long start = System.nanoTime();
+		boolean error = true;
+		try {
+			this._transport.write(address, buff, off, num);
+			error = false;
+		} finally {
+			this._metrics.recordTransaction(address, num, true, (System.nanoTime() - start) / 1000, error);
+		}
+	}
+}
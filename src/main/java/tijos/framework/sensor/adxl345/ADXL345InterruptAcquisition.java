@@ -0,0 +1,150 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Interrupt driven acquisition of TiADXL345
+ * DATA_READY or WATERMARK is mapped to INT1 or INT2, samples are read when the
+ * pin event is received and passed to the sample listener.
+ *
+ *  eg: ADXL345InterruptAcquisition acq = new ADXL345InterruptAcquisition(adxl, listener);
+ *      acq.startWatermark(TiADXL345.ADXL345_INT1_PIN, 16);
+ *      // in the GPIO event handler of the INT1 pin
+ *      acq.onPinEvent(TiADXL345.ADXL345_INT1_PIN);
+ *
+ * The pin must be configured for the active edge selected by
+ * TiADXL345.setInterruptLevelBit, active high by default.
+ */
+public class ADXL345InterruptAcquisition implements ADXL345PinEventListener {
+
+	private static final int MODE_STOPPED = 0;
+	private static final int MODE_DATA_READY = 1;
+	private static final int MODE_WATERMARK = 2;
+
+	private TiADXL345 _adxl;
+	private ADXL345SampleListener _listener;
+
+	private short[] _samples = new short[TiADXL345.ADXL345_FIFO_MAX_ENTRIES * 3];
+
+	private int _mode = MODE_STOPPED;
+	private int _pin = TiADXL345.ADXL345_INT1_PIN;
+	private int _watermark = 0;
+
+	/**
+	 * Initialize with driver and sample listener
+	 * @param adxl
+	 * @param listener
+	 */
+	public ADXL345InterruptAcquisition(TiADXL345 adxl, ADXL345SampleListener listener) {
+		this._adxl = adxl;
+		this._listener = listener;
+	}
+
+	/**
+	 * Read one sample on every DATA_READY interrupt, the FIFO is bypassed
+	 * @param interruptPin ADXL345_INT1_PIN or ADXL345_INT2_PIN
+	 * @throws IOException
+	 */
+	public synchronized void startDataReady(int interruptPin) throws IOException {
+		this.stop();
+		this._pin = interruptPin;
+		this._watermark = 1;
+		this._adxl.beginTransaction()
+				.interruptMapping(TiADXL345.ADXL345_INT_DATA_READY_BIT, interruptPin)
+				.interrupt(TiADXL345.ADXL345_INT_DATA_READY_BIT, true)
+				.fifo(TiADXL345.ADXL345_FIFO_BYPASS, 0, 0)
+				.commit();
+		this._mode = MODE_DATA_READY;
+
+		// clear a pending DATA_READY so the next sample produces an edge
+		this._adxl.readSamples(this._samples, 0, 1);
+	}
+
+	/**
+	 * Drain the FIFO on every WATERMARK interrupt, the FIFO runs in stream mode
+	 * @param interruptPin ADXL345_INT1_PIN or ADXL345_INT2_PIN
+	 * @param watermark samples per interrupt, 1 to 31
+	 * @throws IOException
+	 */
+	public synchronized void startWatermark(int interruptPin, int watermark) throws IOException {
+		if ((watermark < 1) || (watermark > 31)) {
+			throw new IllegalArgumentException("watermark range overflow");
+		}
+		this.stop();
+		this._pin = interruptPin;
+		this._watermark = watermark;
+		this._adxl.beginTransaction()
+				.interruptMapping(TiADXL345.ADXL345_INT_WATERMARK_BIT, interruptPin)
+				.interrupt(TiADXL345.ADXL345_INT_WATERMARK_BIT, true)
+				.fifo(TiADXL345.ADXL345_FIFO_STREAM, watermark, 0)
+				.commit();
+		this._mode = MODE_WATERMARK;
+	}
+
+	/**
+	 * Change the watermark while running in watermark mode, eg. after a change
+	 * of the output data rate
+	 * @param watermark samples per interrupt, 1 to 31
+	 * @throws IOException
+	 */
+	public synchronized void setWatermark(int watermark) throws IOException {
+		if ((watermark < 1) || (watermark > 31)) {
+			throw new IllegalArgumentException("watermark range overflow");
+		}
+		if (this._mode != MODE_WATERMARK) {
+			return;
+		}
+		// onPinEvent holds the same lock, it always drains to the watermark of the register
+		this._adxl.beginTransaction().setBits(TiADXL345.ADXL345_FIFO_CTL, 0x1f, watermark).commit();
+		this._watermark = watermark;
+	}
+
+	public synchronized int getWatermark() {
+		return this._watermark;
+	}
+
+	/**
+	 * Disable the interrupt and bypass the FIFO
+	 * @throws IOException
+	 */
+	public synchronized void stop() throws IOException {
+		if (this._mode == MODE_STOPPED) {
+			return;
+		}
+		this._mode = MODE_STOPPED;
+		this._adxl.beginTransaction()
+				.interrupt(TiADXL345.ADXL345_INT_DATA_READY_BIT, false)
+				.interrupt(TiADXL345.ADXL345_INT_WATERMARK_BIT, false)
+				.fifo(TiADXL345.ADXL345_FIFO_BYPASS, 0, 0)
+				.commit();
+	}
+
+	public synchronized boolean isRunning() {
+		return this._mode != MODE_STOPPED;
+	}
+
+	/**
+	 * Read the available samples and pass them to the listener.
+	 * The FIFO is drained until it is below the watermark, so that the
+	 * interrupt pin is released and the next edge is not missed.
+	 */
+	public synchronized void onPinEvent(int interruptPin) throws IOException {
+		if ((this._mode == MODE_STOPPED) || (interruptPin != this._pin)) {
+			return;
+		}
+
+		if (this._mode == MODE_DATA_READY) {
+			this._adxl.readSamples(this._samples, 0, 1);
+			this._listener.onSamples(this._samples, 0, 1, System.nanoTime() / 1000);
+			return;
+		}
+
+		int n;
+		do {
+			n = this._adxl.drainFifo(this._samples, 0, TiADXL345.ADXL345_FIFO_MAX_ENTRIES);
+			if (n > 0) {
+				this._listener.onSamples(this._samples, 0, n, System.nanoTime() / 1000);
+			}
+		} while (n >= this._watermark);
+	}
+}
@@ -0,0 +1,56 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * First order IIR low-pass filter: y += (x - y) / 2^shift
+ * The state is kept in Q8 to avoid the dead band of integer rounding, the
+ * cut-off frequency is about rate / (2 * pi * 2^shift).
+ */
+public class ADXL345LowPassFilter extends ADXL345Filter {
+
+	private int _shift;
+	private int _sx, _sy, _sz; // Q8
+	private boolean _primed = false;
+
+	/**
+	 * Initialize with the smoothing factor
+	 * @param shift  1 to 15, larger is smoother
+	 */
+	public ADXL345LowPassFilter(int shift) {
+		if ((shift < 1) || (shift > 15)) {
+			throw new IllegalArgumentException("shift range overflow");
+		}
+		this._shift = shift;
+	}
+
+	public void process(short[] xyz, int offset, int count) {
+		if (count <= 0) {
+			return;
+		}
+		int k = this._shift;
+		int sx = this._sx;
+		int sy = this._sy;
+		int sz = this._sz;
+		if (!this._primed) {
+			sx = xyz[offset] << 8;
+			sy = xyz[offset + 1] << 8;
+			sz = xyz[offset + 2] << 8;
+			this._primed = true;
+		}
+		int end = offset + count * 3;
+		for (int i = offset; i < end; i += 3) {
+			sx += ((xyz[i] << 8) - sx) >> k;
+			sy += ((xyz[i + 1] << 8) - sy) >> k;
+			sz += ((xyz[i + 2] << 8) - sz) >> k;
+			xyz[i] = (short) ((sx + 128) >> 8);
+			xyz[i + 1] = (short) ((sy + 128) >> 8);
+			xyz[i + 2] = (short) ((sz + 128) >> 8);
+		}
+		this._sx = sx;
+		this._sy = sy;
+		this._sz = sz;
+	}
+
+	public void reset() {
+		this._primed = false;
+	}
+}
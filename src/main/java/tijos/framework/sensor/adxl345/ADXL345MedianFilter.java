@@ -0,0 +1,78 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Median of the last N samples per axis, removes spikes
+ * A sorted copy of the window is kept per axis, every sample removes the
+ * oldest value and inserts the new one, O(N) per sample and axis.
+ */
+public class ADXL345MedianFilter extends ADXL345Filter {
+
+	private int _window;
+	private short[] _history; // interleaved x, y, z in arrival order
+	private short[] _sorted; // sorted window of x, then y, then z
+	private int _pos = 0;
+	private int _filled = 0;
+
+	/**
+	 * Initialize with the window length
+	 * @param window  number of samples, odd, 3 to 31
+	 */
+	public ADXL345MedianFilter(int window) {
+		if ((window < 3) || (window > 31) || ((window & 1) == 0)) {
+			throw new IllegalArgumentException("window must be odd, 3 to 31");
+		}
+		this._window = window;
+		this._history = new short[window * 3];
+		this._sorted = new short[window * 3];
+	}
+
+	public void process(short[] xyz, int offset, int count) {
+		int window = this._window;
+		int end = offset + count * 3;
+		for (int i = offset; i < end; i += 3) {
+			int p = this._pos * 3;
+			boolean full = this._filled == window;
+			for (int axis = 0; axis < 3; axis++) {
+				short v = xyz[i + axis];
+				int base = axis * window;
+				int n = this._filled;
+				if (full) {
+					n = remove(this._sorted, base, n, this._history[p + axis]);
+				}
+				n = insert(this._sorted, base, n, v);
+				this._history[p + axis] = v;
+				xyz[i + axis] = this._sorted[base + (n >> 1)];
+			}
+			if (!full) {
+				this._filled++;
+			}
+			if (++this._pos == window) {
+				this._pos = 0;
+			}
+		}
+	}
+
+	public void reset() {
+		this._pos = 0;
+		this._filled = 0;
+	}
+
+	private static int remove(short[] a, int base, int n, short v) {
+		int i = base;
+		while (a[i] != v) {
+			i++;
+		}
+		System.arraycopy(a, i + 1, a, i, base + n - i - 1);
+		return n - 1;
+	}
+
+	private static int insert(short[] a, int base, int n, short v) {
+		int i = base + n;
+		while ((i > base) && (a[i - 1] > v)) {
+			a[i] = a[i - 1];
+			i--;
+		}
+		a[i] = v;
+		return n + 1;
+	}
+}
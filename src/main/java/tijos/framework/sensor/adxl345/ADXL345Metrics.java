@@ -0,0 +1,207 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Counters of the bus and sample path of a TiADXL345
+ * Bus counters are filled by ADXL345InstrumentedTransport, sample counters by
+ * the driver after TiADXL345.setMetrics. Without both nothing is counted and
+ * the hot path only pays one null check per sample.
+ *
+ *  eg: ADXL345Metrics metrics = new ADXL345Metrics();
+ *      TiADXL345 adxl = new TiADXL345(new ADXL345InstrumentedTransport(new ADXL345I2CTransport(i2c), metrics));
+ *      adxl.setMetrics(metrics);
+ *      ...
+ *      ADXL345Metrics s = metrics.snapshot();
+ *      System.out.println("overruns " + s.getOverruns() + " max latency " + s.getMaxLatency());
+ */
+public class ADXL345Metrics {
+
+	/* register classes of a bus transaction, by its first register */
+	public static final int CLASS_ID = 0; // DEVID
+	public static final int CLASS_CONFIG = 1; // writable configuration registers
+	public static final int CLASS_STATUS = 2; // ACT_TAP_STATUS, INT_SOURCE, FIFO_STATUS
+	public static final int CLASS_DATA = 3; // DATAX0 to DATAZ1
+	public static final int CLASSES = 4;
+
+	/* latency histogram bins, bin i counts [2^(i-1), 2^i) microseconds, bin 0 counts 0 */
+	public static final int LATENCY_BINS = 24;
+
+	private long[] _reads = new long[CLASSES];
+	private long[] _writes = new long[CLASSES];
+	private long[] _bytesRead = new long[CLASSES];
+	private long[] _bytesWritten = new long[CLASSES];
+	private long _errors = 0;
+	private long[] _latency = new long[LATENCY_BINS];
+	private long _maxLatency = 0;
+
+	private long _samples = 0;
+	private long _duplicates = 0;
+	private long _overruns = 0;
+	private long[] _fifoLevels = new long[TiADXL345.ADXL345_FIFO_MAX_ENTRIES + 1];
+
+	/**
+	 * Register class of a transaction starting at address
+	 * @param address
+	 * @return CLASS_ID, CLASS_CONFIG, CLASS_STATUS or CLASS_DATA
+	 */
+	public static int classOf(int address) {
+		if ((address >= TiADXL345.ADXL345_DATAX0) && (address <= TiADXL345.ADXL345_DATAZ1)) {
+			return CLASS_DATA;
+		}
+		if ((address == TiADXL345.ADXL345_ACT_TAP_STATUS) || (address == TiADXL345.ADXL345_INT_SOURCE)
+				|| (address == TiADXL345.ADXL345_FIFO_STATUS)) {
+			return CLASS_STATUS;
+		}
+		return (address < TiADXL345.ADXL345_THRESH_TAP) ? CLASS_ID : CLASS_CONFIG;
+	}
+
+	synchronized void recordTransaction(int address, int num, boolean write, long micros, boolean error) {
+		int c = classOf(address);
+		if (write) {
+			this._writes[c]++;
+			this._bytesWritten[c] += num;
+		} else {
+			this._reads[c]++;
+			this._bytesRead[c] += num;
+		}
+		if (error) {
+			this._errors++;
+		}
+		int bin = 0;
+		long t = micros;
+		while ((t > 0) && (bin < LATENCY_BINS - 1)) {
+			t >>= 1;
+			bin++;
+		}
+		this._latency[bin]++;
+		if (micros > this._maxLatency) {
+			this._maxLatency = micros;
+		}
+	}
+
+	synchronized void recordSamples(int count, int duplicates) {
+		this._samples += count;
+		this._duplicates += duplicates;
+	}
+
+	synchronized void recordOverrun() {
+		this._overruns++;
+	}
+
+	synchronized void recordFifoLevel(int entries) {
+		this._fifoLevels[entries]++;
+	}
+
+	/**
+	 * Copy of all counters at this moment
+	 * @return
+	 */
+	public synchronized ADXL345Metrics snapshot() {
+		ADXL345Metrics s = new ADXL345Metrics();
+		System.arraycopy(this._reads, 0, s._reads, 0, CLASSES);
+		System.arraycopy(this._writes, 0, s._writes, 0, CLASSES);
+		System.arraycopy(this._bytesRead, 0, s._bytesRead, 0, CLASSES);
+		System.arraycopy(this._bytesWritten, 0, s._bytesWritten, 0, CLASSES);
+		System.arraycopy(this._latency, 0, s._latency, 0, LATENCY_BINS);
+		System.arraycopy(this._fifoLevels, 0, s._fifoLevels, 0, this._fifoLevels.length);
+		s._errors = this._errors;
+		s._maxLatency = this._maxLatency;
+		s._samples = this._samples;
+		s._duplicates = this._duplicates;
+		s._overruns = this._overruns;
+		return s;
+	}
+
+	/**
+	 * Clear all counters
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < CLASSES; i++) {
+			this._reads[i] = this._writes[i] = this._bytesRead[i] = this._bytesWritten[i] = 0;
+		}
+		for (int i = 0; i < LATENCY_BINS; i++) {
+			this._latency[i] = 0;
+		}
+		for (int i = 0; i < this._fifoLevels.length; i++) {
+			this._fifoLevels[i] = 0;
+		}
+		this._errors = this._maxLatency = this._samples = this._duplicates = this._overruns = 0;
+	}
+
+	/**
+	 * Read transactions of a register class
+	 * @param registerClass  CLASS_ID, CLASS_CONFIG, CLASS_STATUS or CLASS_DATA
+	 * @return
+	 */
+	public synchronized long getReads(int registerClass) {
+		return this._reads[registerClass];
+	}
+
+	public synchronized long getWrites(int registerClass) {
+		return this._writes[registerClass];
+	}
+
+	public synchronized long getBytesRead(int registerClass) {
+		return this._bytesRead[registerClass];
+	}
+
+	public synchronized long getBytesWritten(int registerClass) {
+		return this._bytesWritten[registerClass];
+	}
+
+	/**
+	 * Transactions that threw an IOException
+	 * @return
+	 */
+	public synchronized long getErrors() {
+		return this._errors;
+	}
+
+	/**
+	 * Transactions in a latency bin
+	 * @param bin  0 to LATENCY_BINS - 1, bin i counts [2^(i-1), 2^i) microseconds
+	 * @return
+	 */
+	public synchronized long getLatencyCount(int bin) {
+		return this._latency[bin];
+	}
+
+	/**
+	 * Longest transaction
+	 * @return microseconds
+	 */
+	public synchronized long getMaxLatency() {
+		return this._maxLatency;
+	}
+
+	public synchronized long getSamples() {
+		return this._samples;
+	}
+
+	/**
+	 * Samples equal to the previous sample, eg. read faster than the output
+	 * data rate in bypass mode. A sensor at rest with low noise also produces
+	 * some.
+	 * @return
+	 */
+	public synchronized long getDuplicates() {
+		return this._duplicates;
+	}
+
+	/**
+	 * INT_SOURCE reads with the OVERRUN bit set, by any driver call, and FIFO
+	 * drains that found the FIFO full
+	 * @return
+	 */
+	public synchronized long getOverruns() {
+		return this._overruns;
+	}
+
+	/**
+	 * FIFO_STATUS reads that found a number of entries
+	 * @param entries  0 to ADXL345_FIFO_MAX_ENTRIES
+	 * @return
+	 */
+	public synchronized long getFifoLevelCount(int entries) {
+		return this._fifoLevels[entries];
+	}
+}
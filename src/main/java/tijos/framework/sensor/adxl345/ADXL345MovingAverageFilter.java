@@ -0,0 +1,74 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Moving average over the last N samples, kept as running sums so every
+ * sample costs one add, one subtract and one divide per axis
+ */
+public class ADXL345MovingAverageFilter extends ADXL345Filter {
+
+	private int _window;
+	private short[] _history;
+	private int _pos = 0;
+	private int _filled = 0;
+	private int _sumx, _sumy, _sumz;
+
+	/**
+	 * Initialize with the window length
+	 * @param window  number of samples, 1 to 65536
+	 */
+	public ADXL345MovingAverageFilter(int window) {
+		if ((window < 1) || (window > 65536)) {
+			throw new IllegalArgumentException("window range overflow");
+		}
+		this._window = window;
+		this._history = new short[window * 3];
+	}
+
+	public void process(short[] xyz, int offset, int count) {
+		short[] h = this._history;
+		int window = this._window;
+		int pos = this._pos;
+		int filled = this._filled;
+		int sumx = this._sumx;
+		int sumy = this._sumy;
+		int sumz = this._sumz;
+
+		int end = offset + count * 3;
+		for (int i = offset; i < end; i += 3) {
+			int p = pos * 3;
+			if (filled == window) {
+				sumx -= h[p];
+				sumy -= h[p + 1];
+				sumz -= h[p + 2];
+			} else {
+				filled++;
+			}
+			h[p] = xyz[i];
+			h[p + 1] = xyz[i + 1];
+			h[p + 2] = xyz[i + 2];
+			sumx += xyz[i];
+			sumy += xyz[i + 1];
+			sumz += xyz[i + 2];
+			if (++pos == window) {
+				pos = 0;
+			}
+			xyz[i] = (short) (sumx / filled);
+			xyz[i + 1] = (short) (sumy / filled);
+			xyz[i + 2] = (short) (sumz / filled);
+		}
+
+		this._pos = pos;
+		this._filled = filled;
+		this._sumx = sumx;
+		this._sumy = sumy;
+		this._sumz = sumz;
+	}
+
+	public void reset() {
+		this._pos = 0;
+		this._filled = 0;
+		this._sumx = 0;
+		this._sumy = 0;
+		this._sumz = 0;
+	}
+}
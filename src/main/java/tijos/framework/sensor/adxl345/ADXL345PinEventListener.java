@@ -0,0 +1,18 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Edge event of the INT1/INT2 pins of the ADXL345
+ * Call onPinEvent from the GPIO event handler of the board, or from a
+ * simulated pin.
+ */
+public interface ADXL345PinEventListener {
+
+	/**
+	 * Called when an interrupt pin becomes active
+	 * @param interruptPin ADXL345_INT1_PIN or ADXL345_INT2_PIN
+	 * @throws IOException
+	 */
+	void onPinEvent(int interruptPin) throws IOException;
+}
@@ -0,0 +1,223 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Power modes of TiADXL345: standby, measurement, sleep and auto-sleep
+ * POWER_CTL is always written together with the activity and inactivity
+ * setup it depends on: Link and AUTO_SLEEP need activity and inactivity
+ * detection, and the sleep bits are only cleared through standby as the
+ * datasheet recommends.
+ *
+ * With auto-sleep the sensor samples at the wakeup rate (8 to 1 Hz) once it
+ * has been inactive for the inactivity time, and returns to the output data
+ * rate on activity. The transitions are tracked from the ACTIVITY and
+ * INACTIVITY events, register the controller with ADXL345EventEngine, or call
+ * poll() to read the Asleep bit.
+ *
+ *  eg: ADXL345PowerController power = new ADXL345PowerController(adxl, listener);
+ *      events.addListener(power, (1 << ADXL345Event.ACTIVITY) | (1 << ADXL345Event.INACTIVITY));
+ *      power.autoSleep(16, 8, 5, ADXL345PowerController.WAKEUP_8HZ); // 1 g, 0.5 g, 5 s
+ */
+public class ADXL345PowerController implements ADXL345EventListener {
+
+	public static final int STATE_STANDBY = 0;
+	public static final int STATE_MEASURE = 1;
+	public static final int STATE_SLEEP = 2;
+
+	/* POWER_CTL wakeup rates in sleep mode */
+	public static final int WAKEUP_8HZ = 0x00;
+	public static final int WAKEUP_4HZ = 0x01;
+	public static final int WAKEUP_2HZ = 0x02;
+	public static final int WAKEUP_1HZ = 0x03;
+
+	/* POWER_CTL bits */
+	private static final int LINK = 0x20;
+	private static final int AUTO_SLEEP = 0x10;
+	private static final int MEASURE = 0x08;
+	private static final int SLEEP = 0x04;
+
+	private TiADXL345 _adxl;
+	private ADXL345PowerListener _listener;
+
+	private int _powerCtl = 0;
+	private int _state = STATE_STANDBY;
+	private long _since;
+	private long[] _stateTime = new long[3];
+	private long _transitions = 0;
+
+	/**
+	 * Initialize with the driver, the power state is read from POWER_CTL
+	 * @param adxl
+	 * @param listener  transitions, can be null
+	 * @throws IOException
+	 */
+	public ADXL345PowerController(TiADXL345 adxl, ADXL345PowerListener listener) throws IOException {
+		this._adxl = adxl;
+		this._listener = listener;
+		this._since = System.nanoTime() / 1000;
+		this._powerCtl = adxl.readRegister(TiADXL345.ADXL345_POWER_CTL);
+		this._state = this.stateOf(this._powerCtl);
+	}
+
+	/**
+	 * Enable auto-sleep: activity and inactivity detection on all axes, AC
+	 * coupled, linked, sleep after the inactivity time
+	 * @param activityThreshold  62.5 mg/LSB
+	 * @param inactivityThreshold  62.5 mg/LSB
+	 * @param inactivityTime  seconds, 1 to 255
+	 * @param wakeup  WAKEUP_8HZ, WAKEUP_4HZ, WAKEUP_2HZ or WAKEUP_1HZ
+	 * @throws IOException
+	 */
+	public synchronized void autoSleep(int activityThreshold, int inactivityThreshold, int inactivityTime, int wakeup)
+			throws IOException {
+		if ((inactivityTime < 1) || (inactivityTime > 255)) {
+			throw new IllegalArgumentException("inactivity time range overflow");
+		}
+		int powerCtl = LINK | AUTO_SLEEP | MEASURE | (wakeup & 0x03);
+		this._adxl.beginTransaction()
+				.activityThreshold(activityThreshold)
+				.inactivityThreshold(inactivityThreshold)
+				.timeInactivity(inactivityTime)
+				.activityAxes(true, true, true, true)
+				.inactivityAxes(true, true, true, true)
+				.set(TiADXL345.ADXL345_POWER_CTL, powerCtl & ~(MEASURE | SLEEP))
+				.interrupt(TiADXL345.ADXL345_INT_ACTIVITY_BIT, true)
+				.interrupt(TiADXL345.ADXL345_INT_INACTIVITY_BIT, true)
+				.commit();
+		this.writePowerCtl(powerCtl);
+	}
+
+	/**
+	 * Measurement mode at the output data rate, Link and AUTO_SLEEP cleared
+	 * @throws IOException
+	 */
+	public synchronized void measure() throws IOException {
+		this.standbyFirst();
+		this.writePowerCtl(MEASURE | (this._powerCtl & 0x03));
+	}
+
+	/**
+	 * Sleep at the wakeup rate until wake() is called, activity is still
+	 * detected when it is enabled
+	 * @param wakeup  WAKEUP_8HZ, WAKEUP_4HZ, WAKEUP_2HZ or WAKEUP_1HZ
+	 * @throws IOException
+	 */
+	public synchronized void sleep(int wakeup) throws IOException {
+		this.writePowerCtl((this._powerCtl & LINK) | MEASURE | SLEEP | (wakeup & 0x03));
+	}
+
+	/**
+	 * Leave sleep mode through standby, Link and AUTO_SLEEP are kept
+	 * @throws IOException
+	 */
+	public synchronized void wake() throws IOException {
+		int keep = this._powerCtl & (LINK | AUTO_SLEEP | 0x03);
+		this.standbyFirst();
+		this.writePowerCtl(keep | MEASURE);
+	}
+
+	/**
+	 * Standby, no measurement, lowest power
+	 * @throws IOException
+	 */
+	public synchronized void standby() throws IOException {
+		this.writePowerCtl(this._powerCtl & (LINK | AUTO_SLEEP | 0x03));
+	}
+
+	/**
+	 * Read the Asleep bit when the ACTIVITY and INACTIVITY events are not used,
+	 * INT_SOURCE is not touched
+	 * @return current state
+	 * @throws IOException
+	 */
+	public synchronized int poll() throws IOException {
+		if ((this._powerCtl & AUTO_SLEEP) != 0) {
+			boolean asleep = (this._adxl.readRegister(TiADXL345.ADXL345_ACT_TAP_STATUS) & 0x08) != 0;
+			this.transition(asleep ? STATE_SLEEP : STATE_MEASURE, System.nanoTime() / 1000);
+		}
+		return this._state;
+	}
+
+	/**
+	 * Track auto-sleep from ACTIVITY and INACTIVITY events
+	 */
+	public synchronized void onEvent(ADXL345Event event) {
+		if ((this._powerCtl & AUTO_SLEEP) == 0) {
+			return;
+		}
+		int type = event.getType();
+		if ((type == ADXL345Event.ACTIVITY) || (type == ADXL345Event.INACTIVITY)) {
+			this.transition(event.isAsleep() ? STATE_SLEEP : STATE_MEASURE, event.getTimestamp());
+		}
+	}
+
+	public synchronized int getState() {
+		return this._state;
+	}
+
+	/**
+	 * Time of the last transition in microseconds, System.nanoTime() / 1000
+	 * @return
+	 */
+	public synchronized long getStateSince() {
+		return this._since;
+	}
+
+	/**
+	 * Total time spent in a state, including the current one
+	 * @param state  STATE_STANDBY, STATE_MEASURE or STATE_SLEEP
+	 * @return microseconds
+	 */
+	public synchronized long getStateTime(int state) {
+		long t = this._stateTime[state];
+		if (state == this._state) {
+			t += System.nanoTime() / 1000 - this._since;
+		}
+		return t;
+	}
+
+	public synchronized long getTransitionCount() {
+		return this._transitions;
+	}
+
+	/**
+	 * Clear the sleep bits through standby, as the datasheet requires
+	 */
+	private void standbyFirst() throws IOException {
+		if ((this._powerCtl & (SLEEP | AUTO_SLEEP)) != 0) {
+			this._powerCtl &= ~(MEASURE | SLEEP | AUTO_SLEEP);
+			this._adxl.beginTransaction().set(TiADXL345.ADXL345_POWER_CTL, this._powerCtl).commit();
+		}
+	}
+
+	private void writePowerCtl(int powerCtl) throws IOException {
+		this._adxl.beginTransaction().set(TiADXL345.ADXL345_POWER_CTL, powerCtl).commit();
+		this._powerCtl = powerCtl;
+		this.transition(this.stateOf(powerCtl), System.nanoTime() / 1000);
+	}
+
+	private int stateOf(int powerCtl) {
+		if ((powerCtl & MEASURE) == 0) {
+			return STATE_STANDBY;
+		}
+		return ((powerCtl & SLEEP) != 0) ? STATE_SLEEP : STATE_MEASURE;
+	}
+
+	private void transition(int state, long timestamp) {
+		if (state == this._state) {
+			return;
+		}
+		if (timestamp < this._since) {
+			timestamp = this._since;
+		}
+		int old = this._state;
+		this._stateTime[old] += timestamp - this._since;
+		this._state = state;
+		this._since = timestamp;
+		this._transitions++;
+		if (this._listener != null) {
+			this._listener.onPowerState(old, state, timestamp);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Receives power state transitions of ADXL345PowerController
+ *
+ */
+public interface ADXL345PowerListener {
+
+	/**
+	 * Called when the power state changes
+	 * @param oldState  STATE_STANDBY, STATE_MEASURE or STATE_SLEEP
+	 * @param newState
+	 * @param timestamp  time of the transition in microseconds, System.nanoTime() / 1000
+	 */
+	void onPowerState(int oldState, int newState, long timestamp);
+}
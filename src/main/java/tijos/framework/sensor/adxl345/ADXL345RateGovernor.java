@@ -0,0 +1,276 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Adaptive output data rate of TiADXL345
+ * The rate jumps to the maximum when an ACTIVITY event arrives or the signal
+ * energy of the samples crosses the threshold, and steps down one BW_RATE code
+ * per idle period once nothing happened for the idle period. An INACTIVITY
+ * event drops to the minimum rate. The FIFO watermark follows the rate so that
+ * a block of samples is never older than the latency bound.
+ *
+ * The governor sits between the acquisition and the sample listener, and
+ * receives ACTIVITY and INACTIVITY from ADXL345EventEngine. Listener calls
+ * only record the decision, call update() from the application loop to write
+ * the registers.
+ *
+ *  eg: ADXL345RateGovernor gov = new ADXL345RateGovernor(adxl, ring, TiADXL345.ADXL345_BW_12, TiADXL345.ADXL345_BW_1600, 20000);
+ *      gov.setIdlePeriod(10000000);
+ *      gov.setEnergyThreshold(400);
+ *      ADXL345InterruptAcquisition acq = new ADXL345InterruptAcquisition(adxl, gov);
+ *      acq.startWatermark(TiADXL345.ADXL345_INT1_PIN, 16);
+ *      gov.setAcquisition(acq);
+ *      gov.start();
+ *      while (true) {
+ *          if (gov.update()) {
+ *              ring.setSamplePeriod((long) (1000000 / gov.getRate()));
+ *          }
+ *          Delay.msDelay(100);
+ *      }
+ */
+public class ADXL345RateGovernor implements ADXL345SampleListener, ADXL345EventListener {
+
+	private TiADXL345 _adxl;
+	private ADXL345SampleListener _listener;
+	private ADXL345InterruptAcquisition _acquisition = null;
+
+	private int _minCode;
+	private int _maxCode;
+	private int _code;
+	private long _latency; // micros
+
+	private long _idlePeriod = 5000000;
+	private long _energyThreshold = Long.MAX_VALUE;
+	private long _energy = 0;
+
+	private int _mx, _my, _mz; // running mean, Q8
+	private boolean _primed = false;
+
+	private boolean _active = false;
+	private boolean _inactive = false;
+	private long _lastActive;
+	private long _lastChange;
+	private long _changes = 0;
+
+	/**
+	 * Initialize with the rate range and latency bound
+	 * @param adxl
+	 * @param listener  receives the samples, can be null
+	 * @param minCode  lowest BW_RATE code, ADXL345_BW_3 to ADXL345_BW_1600
+	 * @param maxCode  highest BW_RATE code, eg. ADXL345_BW_1600
+	 * @param latencyMicros  longest time a sample may wait in the FIFO
+	 */
+	public ADXL345RateGovernor(TiADXL345 adxl, ADXL345SampleListener listener, int minCode, int maxCode,
+			long latencyMicros) {
+		if ((minCode < TiADXL345.ADXL345_BW_3) || (maxCode > TiADXL345.ADXL345_BW_1600) || (minCode > maxCode)) {
+			throw new IllegalArgumentException("rate code range overflow");
+		}
+		this._adxl = adxl;
+		this._listener = listener;
+		this._minCode = minCode;
+		this._maxCode = maxCode;
+		this._code = minCode;
+		this._latency = latencyMicros;
+		this._lastActive = this._lastChange = System.nanoTime() / 1000;
+	}
+
+	/**
+	 * Set the acquisition whose watermark follows the rate, without it the
+	 * FIFO_CTL samples field is written directly
+	 * @param acquisition
+	 */
+	public synchronized void setAcquisition(ADXL345InterruptAcquisition acquisition) {
+		this._acquisition = acquisition;
+	}
+
+	/**
+	 * Sets the time without activity before the rate steps down
+	 * @param micros
+	 */
+	public synchronized void setIdlePeriod(long micros) {
+		this._idlePeriod = micros;
+	}
+
+	/**
+	 * Sets the energy that counts as activity: the mean square deviation of the
+	 * samples from their running mean, summed over the axes
+	 * @param countsSquared  in counts^2 of the current DATA_FORMAT
+	 */
+	public synchronized void setEnergyThreshold(long countsSquared) {
+		this._energyThreshold = countsSquared;
+	}
+
+	/**
+	 * Energy of the last block of samples
+	 * @return counts^2
+	 */
+	public synchronized long getEnergy() {
+		return this._energy;
+	}
+
+	public synchronized int getRateCode() {
+		return this._code;
+	}
+
+	/**
+	 * Current output data rate
+	 * @return Hz
+	 */
+	public synchronized double getRate() {
+		return rateOf(this._code);
+	}
+
+	/**
+	 * Current FIFO watermark
+	 * @return samples
+	 */
+	public synchronized int getWatermark() {
+		return this.watermarkOf(this._code);
+	}
+
+	public synchronized long getChangeCount() {
+		return this._changes;
+	}
+
+	/**
+	 * Write the minimum rate and its watermark
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		int code;
+		synchronized (this) {
+			code = this._minCode;
+		}
+		this.apply(code);
+	}
+
+	/**
+	 * Measure the energy and pass the samples on
+	 */
+	public void onSamples(short[] xyz, int offset, int count, long timestamp) {
+		synchronized (this) {
+			if (count > 0) {
+				this.measure(xyz, offset, count);
+				if (this._energy > this._energyThreshold) {
+					this._active = true;
+					this._lastActive = timestamp;
+				}
+			}
+		}
+		if (this._listener != null) {
+			this._listener.onSamples(xyz, offset, count, timestamp);
+		}
+	}
+
+	/**
+	 * Record ACTIVITY and INACTIVITY events
+	 */
+	public synchronized void onEvent(ADXL345Event event) {
+		if (event.getType() == ADXL345Event.ACTIVITY) {
+			this._active = true;
+			this._inactive = false;
+			this._lastActive = event.getTimestamp();
+		} else if (event.getType() == ADXL345Event.INACTIVITY) {
+			this._inactive = true;
+		}
+	}
+
+	/**
+	 * Apply the pending rate decision
+	 * @return true if the rate has changed
+	 * @throws IOException
+	 */
+	public boolean update() throws IOException {
+		int code;
+		synchronized (this) {
+			long now = System.nanoTime() / 1000;
+			code = this._code;
+			if (this._active) {
+				code = this._maxCode;
+				this._active = false;
+			} else if (this._inactive) {
+				code = this._minCode;
+				this._inactive = false;
+			} else if ((code > this._minCode) && (now - this._lastActive >= this._idlePeriod)
+					&& (now - this._lastChange >= this._idlePeriod)) {
+				code--;
+			}
+			if (code == this._code) {
+				return false;
+			}
+		}
+		this.apply(code);
+		return true;
+	}
+
+	/*
+	 * The bus calls run outside the lock of the governor: the acquisition calls
+	 * onSamples holding its own lock, setWatermark takes that lock
+	 */
+	private void apply(int code) throws IOException {
+		int old;
+		int watermark;
+		ADXL345InterruptAcquisition acquisition;
+		synchronized (this) {
+			old = this._code;
+			watermark = this.watermarkOf(code);
+			acquisition = this._acquisition;
+		}
+		if (acquisition != null) {
+			// lower the watermark before raising the rate, raise it after lowering the rate
+			if (code > old) {
+				acquisition.setWatermark(watermark);
+				this._adxl.beginTransaction().bw(code).commit();
+			} else {
+				this._adxl.beginTransaction().bw(code).commit();
+				acquisition.setWatermark(watermark);
+			}
+		} else {
+			this._adxl.beginTransaction().bw(code).setBits(TiADXL345.ADXL345_FIFO_CTL, 0x1f, watermark).commit();
+		}
+		synchronized (this) {
+			this._code = code;
+			this._lastChange = System.nanoTime() / 1000;
+			this._changes++;
+		}
+	}
+
+	private int watermarkOf(int code) {
+		int w = (int) (rateOf(code) * this._latency / 1000000);
+		if (w < 1) {
+			w = 1;
+		} else if (w > TiADXL345.ADXL345_FIFO_SIZE - 1) {
+			w = TiADXL345.ADXL345_FIFO_SIZE - 1;
+		}
+		return w;
+	}
+
+	private static double rateOf(int code) {
+		return 3200.0 / (1 << (15 - code));
+	}
+
+	/**
+	 * Mean square deviation from the running mean, summed over the axes
+	 */
+	private void measure(short[] xyz, int offset, int count) {
+		if (!this._primed) {
+			this._mx = xyz[offset] << 8;
+			this._my = xyz[offset + 1] << 8;
+			this._mz = xyz[offset + 2] << 8;
+			this._primed = true;
+		}
+		long sum = 0;
+		int end = offset + count * 3;
+		for (int i = offset; i < end; i += 3) {
+			int dx = xyz[i] - (this._mx >> 8);
+			int dy = xyz[i + 1] - (this._my >> 8);
+			int dz = xyz[i + 2] - (this._mz >> 8);
+			sum += dx * dx + dy * dy + dz * dz;
+			this._mx += ((xyz[i] << 8) - this._mx) >> 5;
+			this._my += ((xyz[i + 1] << 8) - this._my) >> 5;
+			this._mz += ((xyz[i + 2] << 8) - this._mz) >> 5;
+		}
+		this._energy = sum / count;
+	}
+}
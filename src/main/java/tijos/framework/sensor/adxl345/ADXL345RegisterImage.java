@@ -0,0 +1,172 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Immutable image of the configuration registers of an ADXL345
+ * THRESH_TAP to INT_MAP, DATA_FORMAT and FIFO_CTL, 21 bytes. The image is
+ * captured with three burst reads and restored with five writes and one
+ * verifying burst read, eg. after the sensor lost its configuration in a
+ * brown-out.
+ *
+ *  eg: ADXL345RegisterImage image = ADXL345RegisterImage.capture(adxl);
+ *      ...
+ *      if (image.isReset(adxl)) {
+ *          image.restore(adxl);
+ *      }
+ */
+public class ADXL345RegisterImage {
+
+	private static final int FIRST = TiADXL345.ADXL345_THRESH_TAP;
+	private static final int BLOCK = TiADXL345.ADXL345_INT_MAP - FIRST + 1;
+	private static final int SIZE = BLOCK + 2;
+
+	/* the last register of the verifying burst */
+	private static final int VERIFY_END = TiADXL345.ADXL345_FIFO_CTL;
+
+	private final byte[] _regs;
+	private final int _probe;
+
+	private ADXL345RegisterImage(byte[] regs) {
+		this._regs = regs;
+
+		// first register that differs from its reset value detects a reset
+		int probe = TiADXL345.ADXL345_POWER_CTL;
+		for (int a = FIRST; a <= TiADXL345.ADXL345_FIFO_CTL; a++) {
+			if (isImaged(a) && ((this.get(a) & 0xff) != resetValue(a))) {
+				probe = a;
+				break;
+			}
+		}
+		this._probe = probe;
+	}
+
+	/**
+	 * Read the configuration registers of the device, bypassing the register
+	 * cache. THRESH_TAP to INT_MAP are read in one burst, DATA_FORMAT and FIFO_CTL
+	 * one by one so that INT_SOURCE and the data registers are not touched.
+	 * @param adxl
+	 * @return
+	 * @throws IOException
+	 */
+	public static ADXL345RegisterImage capture(TiADXL345 adxl) throws IOException {
+		byte[] regs = new byte[SIZE];
+		synchronized (adxl) {
+			adxl.readRegisters(FIRST, regs, 0, BLOCK);
+			adxl.readRegisters(TiADXL345.ADXL345_DATA_FORMAT, regs, BLOCK, 1);
+			adxl.readRegisters(TiADXL345.ADXL345_FIFO_CTL, regs, BLOCK + 1, 1);
+		}
+		regs[TiADXL345.ADXL345_ACT_TAP_STATUS - FIRST] = 0; // read only
+		return new ADXL345RegisterImage(regs);
+	}
+
+	/**
+	 * Gets the imaged value of a register
+	 * @param address  THRESH_TAP to INT_MAP, DATA_FORMAT or FIFO_CTL
+	 * @return 0 to 255
+	 */
+	public int get(int address) {
+		if (!isImaged(address)) {
+			throw new IllegalArgumentException("register is not in the image");
+		}
+		return this._regs[indexOf(address)] & 0xff;
+	}
+
+	/**
+	 * Check with one register read whether the device lost its configuration,
+	 * the register compared is the first one that differs from its reset value
+	 * @param adxl
+	 * @return true if the register does not hold the imaged value
+	 * @throws IOException
+	 */
+	public boolean isReset(TiADXL345 adxl) throws IOException {
+		byte[] b = new byte[1];
+		adxl.readRegisters(this._probe, b, 0, 1);
+		return (b[0] & 0xff) != this.get(this._probe);
+	}
+
+	/**
+	 * Write the image to the device and verify it
+	 * Order: BW_RATE to INT_MAP with POWER_CTL in standby, THRESH_TAP to
+	 * TAP_AXES, DATA_FORMAT, FIFO_CTL, then one burst read of THRESH_TAP to
+	 * FIFO_CTL in standby, where it does not pop FIFO entries, and POWER_CTL
+	 * last. The readback also clears stale interrupts in INT_SOURCE.
+	 * @param adxl
+	 * @return true if all registers read back as imaged
+	 * @throws IOException
+	 */
+	public boolean restore(TiADXL345 adxl) throws IOException {
+		int power = this.get(TiADXL345.ADXL345_POWER_CTL);
+		int standby = power & ~0x0c; // Measure and Sleep cleared
+		byte[] buff = new byte[VERIFY_END - FIRST + 1];
+		boolean ok = true;
+		synchronized (adxl) {
+			int p = TiADXL345.ADXL345_BW_RATE - FIRST;
+			System.arraycopy(this._regs, p, buff, 0, 4);
+			buff[TiADXL345.ADXL345_POWER_CTL - TiADXL345.ADXL345_BW_RATE] = (byte) standby;
+			adxl.writeTo(TiADXL345.ADXL345_BW_RATE, buff, 0, 4);
+			adxl.writeTo(FIRST, this._regs, 0, TiADXL345.ADXL345_TAP_AXES - FIRST + 1);
+			adxl.writeTo(TiADXL345.ADXL345_DATA_FORMAT, this._regs, BLOCK, 1);
+			adxl.writeTo(TiADXL345.ADXL345_FIFO_CTL, this._regs, BLOCK + 1, 1);
+
+			adxl.readRegisters(FIRST, buff, 0, buff.length);
+			for (int a = FIRST; a <= VERIFY_END; a++) {
+				if (!isImaged(a)) {
+					continue;
+				}
+				int expected = (a == TiADXL345.ADXL345_POWER_CTL) ? standby : this.get(a);
+				if ((buff[a - FIRST] & 0xff) != expected) {
+					ok = false;
+				}
+			}
+
+			buff[0] = (byte) power;
+			adxl.writeTo(TiADXL345.ADXL345_POWER_CTL, buff, 0, 1);
+		}
+		return ok;
+	}
+
+	/**
+	 * Compare with another image
+	 * @param other
+	 * @return true if all registers are equal
+	 */
+	public boolean equals(Object other) {
+		if (!(other instanceof ADXL345RegisterImage)) {
+			return false;
+		}
+		byte[] o = ((ADXL345RegisterImage) other)._regs;
+		for (int i = 0; i < SIZE; i++) {
+			if (o[i] != this._regs[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int hashCode() {
+		int h = 0;
+		for (int i = 0; i < SIZE; i++) {
+			h = h * 31 + this._regs[i];
+		}
+		return h;
+	}
+
+	private static boolean isImaged(int address) {
+		return (address >= 0) && (address < 64) && ((TiADXL345.ADXL345_CONFIG_REGS >> address) & 1) != 0;
+	}
+
+	private static int indexOf(int address) {
+		if (address == TiADXL345.ADXL345_DATA_FORMAT) {
+			return BLOCK;
+		}
+		if (address == TiADXL345.ADXL345_FIFO_CTL) {
+			return BLOCK + 1;
+		}
+		return address - FIRST;
+	}
+
+	private static int resetValue(int address) {
+		return (address == TiADXL345.ADXL345_BW_RATE) ? 0x0a : 0;
+	}
+}
@@ -0,0 +1,138 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+import tijos.framework.util.Delay;
+
+/**
+ * Transport decorator retrying failed transactions a bounded number of times
+ * The delay before a retry starts at the backoff and doubles per retry up to
+ * maxBackoff, short delays are spun so that a glitch costs microseconds. When
+ * all retries fail the last IOException is thrown.
+ *
+ * A retried read of the data registers or of INT_SOURCE may miss the FIFO
+ * entry or the interrupt flags cleared by the failed attempt.
+ *
+ *  eg: ADXL345RetryTransport retry = new ADXL345RetryTransport(new ADXL345I2CTransport(i2c), 3, 50, 5000);
+ *      TiADXL345 adxl = new TiADXL345(retry);
+ */
+public class ADXL345RetryTransport implements ADXL345Transport {
+
+	private ADXL345Transport _transport;
+	private int _maxRetries;
+	private long _backoff; // micros
+	private long _maxBackoff;
+
+	private long _retries = 0;
+	private long _recovered = 0;
+	private long _failures = 0;
+	private IOException _lastError = null;
+
+	/**
+	 * Initialize with the transport to protect
+	 * @param transport
+	 * @param maxRetries  retries after the first attempt, 0 to 16
+	 * @param backoffMicros  delay before the first retry
+	 * @param maxBackoffMicros  longest delay between retries
+	 */
+	public ADXL345RetryTransport(ADXL345Transport transport, int maxRetries, long backoffMicros, long maxBackoffMicros) {
+		if ((maxRetries < 0) || (maxRetries > 16)) {
+			throw new IllegalArgumentException("maxRetries must be 0 to 16");
+		}
+		if ((backoffMicros < 0) || (maxBackoffMicros < backoffMicros)) {
+			throw new IllegalArgumentException("invalid backoff");
+		}
+		this._transport = transport;
+		this._maxRetries = maxRetries;
+		this._backoff = backoffMicros;
+		this._maxBackoff = maxBackoffMicros;
+	}
+
+	public void read(int address, byte[] buff, int off, int num) throws IOException {
+		this.transfer(false, address, buff, off, num);
+	}
+
+	public void write(int address, byte[] buff, int off, int num) throws IOException {
+		this.transfer(true, address, buff, off, num);
+	}
+
+	private void transfer(boolean write, int address, byte[] buff, int off, int num) throws IOException {
+		long backoff = this._backoff;
+		int attempt = 0;
+		while (true) {
+			try {
+				if (write) {
+					this._transport.write(address, buff, off, num);
+				} else {
+					this._transport.read(address, buff, off, num);
+				}
+				if (attempt > 0) {
+					synchronized (this) {
+						this._recovered++;
+					}
+				}
+				return;
+			} catch (IOException ex) {
+				synchronized (this) {
+					this._lastError = ex;
+					if (attempt >= this._maxRetries) {
+						this._failures++;
+						throw ex;
+					}
+					this._retries++;
+				}
+			}
+			attempt++;
+			pause(backoff);
+			backoff <<= 1;
+			if (backoff > this._maxBackoff) {
+				backoff = this._maxBackoff;
+			}
+		}
+	}
+
+	private static void pause(long micros) {
+		if (micros >= 1000) {
+			Delay.msDelay((int) ((micros + 999) / 1000)); // never shorter than the backoff
+			return;
+		}
+		long end = System.nanoTime() + micros * 1000;
+		while (System.nanoTime() - end < 0) {
+		}
+	}
+
+	/**
+	 * Retries done
+	 * @return
+	 */
+	public synchronized long getRetries() {
+		return this._retries;
+	}
+
+	/**
+	 * Transactions that succeeded after one or more retries
+	 * @return
+	 */
+	public synchronized long getRecovered() {
+		return this._recovered;
+	}
+
+	/**
+	 * Transactions that failed after all retries
+	 * @return
+	 */
+	public synchronized long getFailures() {
+		return this._failures;
+	}
+
+	public synchronized IOException getLastError() {
+		return this._lastError;
+	}
+
+	public synchronized void resetCounters() {
+		this._retries = 0;
+		this._recovered = 0;
+		this._failures = 0;
+		this._lastError = null;
+	}
+}
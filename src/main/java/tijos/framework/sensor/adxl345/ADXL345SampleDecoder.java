@@ -0,0 +1,167 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Decoder of the binary sample blocks written by ADXL345SampleEncoder
+ * Only uses plain Java, so the backend can decode the uplink on any JVM.
+ *
+ * Block layout, multi-byte values big endian:
+ *  0  magic 0xA5
+ *  1  version
+ *  2  BW_RATE code, output data rate is 3200 Hz >> (15 - code)
+ *  3  DATA_FORMAT range (bits 1:0) and FULL_RES (bit 3)
+ *  4  sample count, 2 bytes
+ *  6  timestamp of the newest sample in microseconds, 8 bytes
+ *  14 samples: per sample x, y, z, each the zigzag varint of the difference
+ *     to the previous sample of the axis, the first sample to 0
+ *
+ *  eg: ADXL345SampleDecoder dec = new ADXL345SampleDecoder();
+ *      int pos = 0;
+ *      while (pos < len) {
+ *          pos = dec.decode(buf, pos, len - pos);
+ *          for (int i = 0; i < dec.getCount(); i++) { ... dec.getMilliG(i, 2) ... }
+ *      }
+ */
+public class ADXL345SampleDecoder {
+
+	public static final int MAGIC = 0xA5;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 14;
+
+	/* longest encoded sample, 3 varints of 3 bytes */
+	public static final int MAX_SAMPLE_SIZE = 9;
+
+	private int _rateCode;
+	private int _format;
+	private int _count;
+	private long _timestamp;
+	private short[] _xyz = new short[0];
+
+	/**
+	 * Decode one block
+	 * @param src
+	 * @param offset
+	 * @param length  bytes available from offset
+	 * @return offset of the next block
+	 */
+	public int decode(byte[] src, int offset, int length) {
+		int end = offset + length;
+		if ((length < HEADER_SIZE) || ((src[offset] & 0xff) != MAGIC)) {
+			throw new IllegalArgumentException("not an ADXL345 sample block");
+		}
+		if (src[offset + 1] != VERSION) {
+			throw new IllegalArgumentException("unsupported sample block version");
+		}
+		this._rateCode = src[offset + 2] & 0x0f;
+		this._format = src[offset + 3] & 0x0b;
+		this._count = ((src[offset + 4] & 0xff) << 8) | (src[offset + 5] & 0xff);
+		long t = 0;
+		for (int i = 0; i < 8; i++) {
+			t = (t << 8) | (src[offset + 6 + i] & 0xff);
+		}
+		this._timestamp = t;
+
+		if (this._xyz.length < this._count * 3) {
+			this._xyz = new short[this._count * 3];
+		}
+		int pos = offset + HEADER_SIZE;
+		int[] last = new int[3];
+		for (int i = 0; i < this._count * 3; i++) {
+			int v = 0;
+			int shift = 0;
+			int b;
+			do {
+				if (pos >= end) {
+					throw new IllegalArgumentException("truncated sample block");
+				}
+				b = src[pos++] & 0xff;
+				v |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			int axis = i % 3;
+			last[axis] += (v >>> 1) ^ -(v & 1);
+			this._xyz[i] = (short) last[axis];
+		}
+		return pos;
+	}
+
+	public int getCount() {
+		return this._count;
+	}
+
+	public int getRateCode() {
+		return this._rateCode;
+	}
+
+	/**
+	 * Output data rate of the block
+	 * @return Hz
+	 */
+	public double getRate() {
+		return 3200.0 / (1 << (15 - this._rateCode));
+	}
+
+	/**
+	 * Measurement range
+	 * @return 2, 4, 8 or 16 g
+	 */
+	public int getRange() {
+		return 2 << (this._format & 0x03);
+	}
+
+	public boolean isFullResolution() {
+		return (this._format & 0x08) != 0;
+	}
+
+	/**
+	 * Scale of the samples
+	 * @return g per count
+	 */
+	public double getScale() {
+		return this.isFullResolution() ? 0.0039 : 0.0039 * (1 << (this._format & 0x03));
+	}
+
+	/**
+	 * Timestamp of the newest sample in microseconds
+	 * @return
+	 */
+	public long getTimestamp() {
+		return this._timestamp;
+	}
+
+	/**
+	 * Timestamp of a sample, spaced by the sample period back from the newest
+	 * @param index
+	 * @return microseconds
+	 */
+	public long getTimestamp(int index) {
+		return this._timestamp - (long) ((this._count - 1 - index) * 1000000.0 / this.getRate());
+	}
+
+	/**
+	 * Raw sample value
+	 * @param index
+	 * @param axis  0: x, 1: y, 2: z
+	 * @return counts
+	 */
+	public int getCounts(int index, int axis) {
+		return this._xyz[index * 3 + axis];
+	}
+
+	/**
+	 * Sample value
+	 * @param index
+	 * @param axis  0: x, 1: y, 2: z
+	 * @return milli-g
+	 */
+	public int getMilliG(int index, int axis) {
+		return (int) Math.round(this._xyz[index * 3 + axis] * this.getScale() * 1000);
+	}
+
+	/**
+	 * Decoded samples as interleaved x, y, z counts, valid up to getCount() * 3
+	 * @return
+	 */
+	public short[] getSamples() {
+		return this._xyz;
+	}
+}
@@ -0,0 +1,168 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of sample blocks for the uplink
+ * Every block of samples becomes a 14 byte header with rate, range and
+ * timestamp followed by the zigzag varint differences of the raw counts, see
+ * ADXL345SampleDecoder for the layout. At rest a sample takes 3 bytes instead
+ * of 6 raw bytes or about 40 bytes of text. Blocks decode independently.
+ *
+ * The encoder appends to a buffer allocated at construction, as a sample
+ * listener straight from the FIFO drains, or with encode().
+ *
+ *  eg: ADXL345SampleEncoder enc = new ADXL345SampleEncoder(1024);
+ *      enc.setFormat(adxl);
+ *      ADXL345InterruptAcquisition acq = new ADXL345InterruptAcquisition(adxl, enc);
+ *      ...
+ *      uplink.send(enc.getBuffer(), 0, enc.getLength());
+ *      enc.clear();
+ */
+public class ADXL345SampleEncoder implements ADXL345SampleListener {
+
+	private byte[] _buffer;
+	private int _length = 0;
+
+	private int _rateCode = TiADXL345.ADXL345_BW_50;
+	private int _format = 0;
+
+	private long _blocks = 0;
+	private long _dropped = 0;
+
+	/**
+	 * Initialize with the buffer size
+	 * @param capacity  bytes
+	 */
+	public ADXL345SampleEncoder(int capacity) {
+		this._buffer = new byte[capacity];
+	}
+
+	/**
+	 * Take rate and range of the blocks from BW_RATE and DATA_FORMAT
+	 * @param adxl
+	 * @throws IOException
+	 */
+	public synchronized void setFormat(TiADXL345 adxl) throws IOException {
+		this.setFormat(adxl.readRegister(TiADXL345.ADXL345_BW_RATE), adxl.readRegister(TiADXL345.ADXL345_DATA_FORMAT));
+	}
+
+	/**
+	 * Sets rate and range of the blocks
+	 * @param bwRate  BW_RATE register value
+	 * @param dataFormat  DATA_FORMAT register value
+	 */
+	public synchronized void setFormat(int bwRate, int dataFormat) {
+		this._rateCode = bwRate & 0x0f;
+		this._format = dataFormat & 0x0b;
+	}
+
+	/**
+	 * Longest encoded block
+	 * @param count  samples
+	 * @return bytes
+	 */
+	public static int maxBlockSize(int count) {
+		return ADXL345SampleDecoder.HEADER_SIZE + count * ADXL345SampleDecoder.MAX_SAMPLE_SIZE;
+	}
+
+	/**
+	 * Append a block to the buffer, the block is dropped if it may not fit or
+	 * holds more than 65535 samples
+	 */
+	public synchronized void onSamples(short[] xyz, int offset, int count, long timestamp) {
+		if (count <= 0) {
+			return;
+		}
+		if ((count > 0xffff) || (this._length + maxBlockSize(count) > this._buffer.length)) {
+			this._dropped += count;
+			return;
+		}
+		this._length = this.encode(xyz, offset, count, timestamp, this._buffer, this._length);
+		this._blocks++;
+	}
+
+	/**
+	 * Encode one block, dst must hold maxBlockSize(count) bytes
+	 * @param xyz  interleaved x, y, z counts
+	 * @param offset
+	 * @param count  samples, at most 65535
+	 * @param timestamp  time of the newest sample in microseconds
+	 * @param dst
+	 * @param dstOffset
+	 * @return offset after the block
+	 */
+	public synchronized int encode(short[] xyz, int offset, int count, long timestamp, byte[] dst, int dstOffset) {
+		if ((count < 0) || (count > 0xffff) || (offset < 0) || (offset + count * 3 > xyz.length)) {
+			throw new IllegalArgumentException("xyz range overflow");
+		}
+		int p = dstOffset;
+		dst[p++] = (byte) ADXL345SampleDecoder.MAGIC;
+		dst[p++] = (byte) ADXL345SampleDecoder.VERSION;
+		dst[p++] = (byte) this._rateCode;
+		dst[p++] = (byte) this._format;
+		dst[p++] = (byte) (count >> 8);
+		dst[p++] = (byte) count;
+		for (int i = 56; i >= 0; i -= 8) {
+			dst[p++] = (byte) (timestamp >> i);
+		}
+
+		int lx = 0;
+		int ly = 0;
+		int lz = 0;
+		int end = offset + count * 3;
+		for (int i = offset; i < end; i += 3) {
+			int x = xyz[i];
+			int y = xyz[i + 1];
+			int z = xyz[i + 2];
+			p = putVarint(dst, p, x - lx);
+			p = putVarint(dst, p, y - ly);
+			p = putVarint(dst, p, z - lz);
+			lx = x;
+			ly = y;
+			lz = z;
+		}
+		return p;
+	}
+
+	private static int putVarint(byte[] dst, int p, int delta) {
+		int v = (delta << 1) ^ (delta >> 31); // zigzag
+		while ((v & ~0x7f) != 0) {
+			dst[p++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		dst[p++] = (byte) v;
+		return p;
+	}
+
+	/**
+	 * Encoded blocks, valid up to getLength()
+	 * @return
+	 */
+	public byte[] getBuffer() {
+		return this._buffer;
+	}
+
+	public synchronized int getLength() {
+		return this._length;
+	}
+
+	public synchronized long getBlockCount() {
+		return this._blocks;
+	}
+
+	/**
+	 * Samples dropped because the buffer was full
+	 * @return
+	 */
+	public synchronized long getDroppedSamples() {
+		return this._dropped;
+	}
+
+	/**
+	 * Empty the buffer after sending it
+	 */
+	public synchronized void clear() {
+		this._length = 0;
+	}
+}
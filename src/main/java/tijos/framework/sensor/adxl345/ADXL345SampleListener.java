@@ -0,0 +1,18 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Receives blocks of samples read from a TiADXL345
+ *
+ */
+public interface ADXL345SampleListener {
+
+	/**
+	 * Called with a block of samples as interleaved x, y, z counts, the array is
+	 * reused for the next block and must not be kept after the call returns
+	 * @param xyz  sample data, 3 values per sample
+	 * @param offset  index of the first x value
+	 * @param count  number of samples
+	 * @param timestamp  time of the newest sample in microseconds, System.nanoTime() / 1000
+	 */
+	void onSamples(short[] xyz, int offset, int count, long timestamp);
+}
@@ -0,0 +1,180 @@
+package tijos.framework.sensor.adxl345;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import tijos.framework.util.Delay;
+
+/**
+ * Single producer, single consumer queue of samples without locks
+ * The producer thread appends blocks with onSamples, one consumer thread takes
+ * them with poll. The producer publishes its end through a volatile field,
+ * the start of the queue is an AtomicLong moved by compare-and-set, neither
+ * side ever waits for a lock held by the other.
+ *
+ * POLICY_DROP_OLDEST: the producer never waits, when the queue is full it
+ * moves the start past the oldest samples before it overwrites them and counts
+ * them as dropped. A consumer copying those samples fails to move the start
+ * and copies again from the new start, so it never returns overwritten values.
+ * POLICY_BLOCK: the producer waits for free space, no sample is lost but the
+ * sampling cadence follows the consumer.
+ *
+ *  eg: ADXL345SampleQueue queue = new ADXL345SampleQueue(1024, ADXL345SampleQueue.POLICY_DROP_OLDEST);
+ *      // producer: ADXL345AcquisitionRunner, or any sample source
+ *      // consumer thread
+ *      int n = queue.poll(xyz, 0, 64);
+ */
+public class ADXL345SampleQueue implements ADXL345SampleListener {
+
+	public static final int POLICY_DROP_OLDEST = 0;
+	public static final int POLICY_BLOCK = 1;
+
+	private short[] _xyz;
+	private long[] _timestamps;
+	private int _capacity;
+	private int _mask;
+	private int _policy;
+
+	/* start of the queue, moved by the consumer and by the dropping producer */
+	private AtomicLong _head = new AtomicLong();
+
+	/* producer side */
+	private volatile long _tail = 0; // end of the published samples
+	private volatile long _dropped = 0;
+	private long _waits = 0;
+
+	/* consumer side */
+	private long _lastTimestamp = 0;
+
+	/**
+	 * Initialize with capacity and policy
+	 * @param capacity  samples, power of 2
+	 * @param policy  POLICY_DROP_OLDEST or POLICY_BLOCK
+	 */
+	public ADXL345SampleQueue(int capacity, int policy) {
+		if ((capacity < 2) || ((capacity & (capacity - 1)) != 0)) {
+			throw new IllegalArgumentException("capacity must be a power of 2");
+		}
+		this._capacity = capacity;
+		this._mask = capacity - 1;
+		this._policy = policy;
+		this._xyz = new short[capacity * 3];
+		this._timestamps = new long[capacity];
+	}
+
+	public int getCapacity() {
+		return this._capacity;
+	}
+
+	/**
+	 * Append a block, producer thread only
+	 */
+	public void onSamples(short[] xyz, int offset, int count, long timestamp) {
+		while (count > 0) {
+			int n = (count > this._capacity) ? this._capacity : count;
+			long tail = this._tail;
+
+			// the slots are written only after the start moved past them
+			while (true) {
+				long head = this._head.get();
+				long start = tail + n - this._capacity;
+				if (head >= start) {
+					break;
+				}
+				if (this._policy == POLICY_BLOCK) {
+					this._waits++;
+					Delay.msDelay(1);
+				} else if (this._head.compareAndSet(head, start)) {
+					this._dropped += start - head;
+					break;
+				}
+			}
+
+			for (int i = 0; i < n; i++) {
+				int pos = (int) ((tail + i) & this._mask);
+				int src = offset + i * 3;
+				this._xyz[pos * 3] = xyz[src];
+				this._xyz[pos * 3 + 1] = xyz[src + 1];
+				this._xyz[pos * 3 + 2] = xyz[src + 2];
+				this._timestamps[pos] = timestamp;
+			}
+			this._tail = tail + n;
+			offset += n * 3;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Take up to maxSamples of the oldest samples, consumer thread only
+	 * @param dst  interleaved x, y, z counts
+	 * @param offset
+	 * @param maxSamples
+	 * @return number of samples taken, 0 when empty
+	 */
+	public int poll(short[] dst, int offset, int maxSamples) {
+		while (true) {
+			long head = this._head.get();
+			int n = (int) (this._tail - head);
+			if (n <= 0) {
+				return 0;
+			}
+			if (n > maxSamples) {
+				n = maxSamples;
+			}
+			long timestamp = 0;
+			for (int i = 0; i < n; i++) {
+				int pos = (int) ((head + i) & this._mask);
+				dst[offset + i * 3] = this._xyz[pos * 3];
+				dst[offset + i * 3 + 1] = this._xyz[pos * 3 + 1];
+				dst[offset + i * 3 + 2] = this._xyz[pos * 3 + 2];
+				timestamp = this._timestamps[pos];
+			}
+
+			// fails when the producer dropped the samples while they were copied
+			if (this._head.compareAndSet(head, head + n)) {
+				this._lastTimestamp = timestamp;
+				return n;
+			}
+		}
+	}
+
+	/**
+	 * Read timestamp of the block of the last sample taken
+	 * @return microseconds, System.nanoTime() / 1000
+	 */
+	public long getLastTimestamp() {
+		return this._lastTimestamp;
+	}
+
+	/**
+	 * Samples waiting to be taken
+	 * @return
+	 */
+	public int size() {
+		long n = this._tail - this._head.get();
+		return (int) ((n > this._capacity) ? this._capacity : ((n < 0) ? 0 : n));
+	}
+
+	/**
+	 * Samples dropped by the producer before the consumer took them
+	 * @return
+	 */
+	public long getDropped() {
+		return this._dropped;
+	}
+
+	/**
+	 * Times the producer waited for space with POLICY_BLOCK
+	 * @return
+	 */
+	public long getProducerWaits() {
+		return this._waits;
+	}
+
+	/**
+	 * Total samples appended
+	 * @return
+	 */
+	public long getProduced() {
+		return this._tail;
+	}
+}
@@ -0,0 +1,244 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Fixed capacity history of samples with timestamps
+ * Samples are kept as interleaved x, y, z counts, the oldest samples are
+ * overwritten when the ring is full. Memory is allocated at construction only:
+ * 14 bytes per sample.
+ *
+ * Every sample gets a sequence number, counted from 0 since construction, and
+ * a monotonic timestamp in microseconds. Blocks carry the timestamp of their
+ * newest sample, older samples of the block are spaced by the sample period.
+ *
+ *  eg: ADXL345SampleRing ring = new ADXL345SampleRing(1600, 1000000 / 800);
+ *      ring.record(adxl);  // or use it as listener of ADXL345InterruptAcquisition
+ *      long seq = ring.indexOf(ring.getLatestTimestamp() - 500000);
+ *      for (; seq < ring.getNextSequence(); seq++) { ring.get(seq, xyz, 0); ... }
+ */
+public class ADXL345SampleRing implements ADXL345SampleListener {
+
+	private short[] _xyz;
+	private long[] _timestamps;
+	private int _capacity;
+
+	private long _next = 0; // sequence number of the next sample
+	private long _start = 0; // first sequence number after clear
+	private long _lastTimestamp = Long.MIN_VALUE;
+	private long _period;
+
+	/**
+	 * Initialize with capacity and sample period
+	 * @param capacity  number of samples
+	 * @param periodMicros  sample period in microseconds, 1000000 / rate
+	 */
+	public ADXL345SampleRing(int capacity, long periodMicros) {
+		this._capacity = capacity;
+		this._xyz = new short[capacity * 3];
+		this._timestamps = new long[capacity];
+		this._period = periodMicros;
+	}
+
+	public synchronized void setSamplePeriod(long periodMicros) {
+		this._period = periodMicros;
+	}
+
+	public int getCapacity() {
+		return this._capacity;
+	}
+
+	/**
+	 * Gets the number of samples held, at most the capacity
+	 * @return
+	 */
+	public synchronized int size() {
+		return (int) (this._next - this.getOldestSequence());
+	}
+
+	/**
+	 * Sequence number of the oldest sample held
+	 * @return
+	 */
+	public synchronized long getOldestSequence() {
+		long oldest = this._next - this._capacity;
+		return (oldest > this._start) ? oldest : this._start;
+	}
+
+	/**
+	 * Sequence number of the next sample to be written, the newest sample is
+	 * getNextSequence() - 1
+	 * @return
+	 */
+	public synchronized long getNextSequence() {
+		return this._next;
+	}
+
+	public synchronized long getLatestTimestamp() {
+		return (this._next > this._start) ? this._lastTimestamp : 0;
+	}
+
+	/**
+	 * Append a block of samples
+	 */
+	public synchronized void onSamples(short[] xyz, int offset, int count, long timestamp) {
+		long seq = this._next;
+		int done = 0;
+		while (done < count) {
+			int pos = (int) ((seq + done) % this._capacity);
+			int n = count - done;
+			if (n > this._capacity - pos) {
+				n = this._capacity - pos;
+			}
+			System.arraycopy(xyz, offset + done * 3, this._xyz, pos * 3, n * 3);
+			done += n;
+		}
+		this.commit(seq, count, timestamp);
+	}
+
+	/**
+	 * Drain the FIFO of the sensor straight into the ring
+	 * @param adxl
+	 * @return number of samples read
+	 * @throws IOException
+	 */
+	public synchronized int record(TiADXL345 adxl) throws IOException {
+		long seq = this._next;
+		int pos = (int) (seq % this._capacity);
+		int max = TiADXL345.ADXL345_FIFO_MAX_ENTRIES;
+		if (max > this._capacity - pos) {
+			max = this._capacity - pos;
+		}
+		int n = adxl.drainFifo(this._xyz, pos * 3, max);
+		if ((n == max) && (max < TiADXL345.ADXL345_FIFO_MAX_ENTRIES)) {
+			// wrap around
+			max = TiADXL345.ADXL345_FIFO_MAX_ENTRIES - max;
+			if (max > pos) {
+				max = pos;
+			}
+			n += adxl.drainFifo(this._xyz, 0, max);
+		}
+		if (n > 0) {
+			this.commit(seq, n, System.nanoTime() / 1000);
+		}
+		return n;
+	}
+
+	/**
+	 * Assign timestamps to count samples written at sequence seq
+	 */
+	private void commit(long seq, int count, long timestamp) {
+		long last = this._lastTimestamp;
+		long t = timestamp - (count - 1) * this._period;
+		for (int i = 0; i < count; i++) {
+			if (t <= last) {
+				t = last + 1; // keep timestamps monotonic
+			}
+			this._timestamps[(int) ((seq + i) % this._capacity)] = t;
+			last = t;
+			t += this._period;
+		}
+		this._lastTimestamp = last;
+		this._next = seq + count;
+	}
+
+	/**
+	 * Gets one sample
+	 * @param seq  sequence number, between getOldestSequence() and getNextSequence() - 1
+	 * @param dst
+	 * @param offset
+	 * @return timestamp of the sample
+	 */
+	public synchronized long get(long seq, short[] dst, int offset) {
+		this.check(seq);
+		int i = (int) (seq % this._capacity);
+		dst[offset] = this._xyz[i * 3];
+		dst[offset + 1] = this._xyz[i * 3 + 1];
+		dst[offset + 2] = this._xyz[i * 3 + 2];
+		return this._timestamps[i];
+	}
+
+	public synchronized long getTimestamp(long seq) {
+		this.check(seq);
+		return this._timestamps[(int) (seq % this._capacity)];
+	}
+
+	/**
+	 * Sequence number of the first sample held with a timestamp at or after
+	 * timestamp, getNextSequence() if there is none
+	 * @param timestamp
+	 * @return
+	 */
+	public synchronized long indexOf(long timestamp) {
+		long lo = this.getOldestSequence();
+		long hi = this._next;
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			if (this._timestamps[(int) (mid % this._capacity)] < timestamp) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Copy the samples with timestamp at or after since, oldest first
+	 * @param since  timestamp in microseconds
+	 * @param dst  interleaved x, y, z counts
+	 * @param offset
+	 * @param timestamps  timestamps of the copied samples, can be null
+	 * @param maxSamples
+	 * @return number of samples copied
+	 */
+	public synchronized int copySince(long since, short[] dst, int offset, long[] timestamps, int maxSamples) {
+		return this.copy(this.indexOf(since), dst, offset, timestamps, maxSamples);
+	}
+
+	/**
+	 * Copy the newest samples covering the last windowMicros, oldest first
+	 * @param windowMicros
+	 * @param dst  interleaved x, y, z counts
+	 * @param offset
+	 * @param timestamps  timestamps of the copied samples, can be null
+	 * @param maxSamples
+	 * @return number of samples copied
+	 */
+	public synchronized int snapshot(long windowMicros, short[] dst, int offset, long[] timestamps, int maxSamples) {
+		long seq = this.indexOf(this.getLatestTimestamp() - windowMicros);
+		if (this._next - seq > maxSamples) {
+			seq = this._next - maxSamples; // keep the newest
+		}
+		return this.copy(seq, dst, offset, timestamps, maxSamples);
+	}
+
+	private int copy(long seq, short[] dst, int offset, long[] timestamps, int maxSamples) {
+		int n = 0;
+		while ((seq < this._next) && (n < maxSamples)) {
+			int i = (int) (seq % this._capacity);
+			dst[offset++] = this._xyz[i * 3];
+			dst[offset++] = this._xyz[i * 3 + 1];
+			dst[offset++] = this._xyz[i * 3 + 2];
+			if (timestamps != null) {
+				timestamps[n] = this._timestamps[i];
+			}
+			n++;
+			seq++;
+		}
+		return n;
+	}
+
+	/**
+	 * Drop all samples, sequence numbers keep counting
+	 */
+	public synchronized void clear() {
+		this._start = this._next;
+	}
+
+	private void check(long seq) {
+		if ((seq < this.getOldestSequence()) || (seq >= this._next)) {
+			throw new IllegalArgumentException("sequence overwritten or not yet written");
+		}
+	}
+}
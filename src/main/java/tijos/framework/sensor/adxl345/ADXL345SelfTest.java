@@ -0,0 +1,153 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+import tijos.framework.util.Delay;
+
+/**
+ * Self-test procedure of the datasheet
+ * The sensor is set to 800 Hz, full resolution and +-16 g, N samples are
+ * averaged with the self-test force off and on, and the output change of each
+ * axis is compared with the datasheet limits. BW_RATE, POWER_CTL, DATA_FORMAT,
+ * FIFO_CTL and the axis gains are restored afterwards.
+ *
+ * The samples are collected through the FIFO, one FIFO_STATUS read per drain
+ * and one burst read per sample. With 10 samples the test takes about 60 ms.
+ * The sensor must be at rest during the test.
+ *
+ *  eg: ADXL345SelfTest test = new ADXL345SelfTest(adxl, 10);
+ *      if (!test.run()) {
+ *          System.out.println("self-test failed " + test.getDelta(0) + " " + test.getDelta(1) + " " + test.getDelta(2));
+ *      }
+ */
+public class ADXL345SelfTest {
+
+	/* output change limits in LSB at full resolution (3.9 mg/LSB), VS = 2.5 V */
+	public static final int[] ADXL345_SELF_TEST_MIN = { 50, -540, 75 };
+	public static final int[] ADXL345_SELF_TEST_MAX = { 540, -50, 875 };
+
+	/* samples to discard after switching the self-test force */
+	private static final int ADXL345_SELF_TEST_SETTLE = 4;
+
+	/* 800 Hz, self-test limits are specified from 100 to 800 Hz */
+	private static final int ADXL345_SELF_TEST_RATE = 0x0D;
+
+	private TiADXL345 _adxl;
+	private int _samples;
+
+	private double _scaleXY = 1.0;
+	private double _scaleZ = 1.0;
+
+	private int[] _off = new int[3];
+	private int[] _on = new int[3];
+	private int[] _delta = new int[3];
+	private int _failed = 0;
+	private double[] _gains = new double[3];
+
+	/**
+	 * Initialize with the driver and the number of samples to average
+	 * @param adxl
+	 * @param samples  eg. 10
+	 */
+	public ADXL345SelfTest(TiADXL345 adxl, int samples) {
+		this._adxl = adxl;
+		this._samples = samples;
+	}
+
+	/**
+	 * Scale the limits for the supply voltage, the limits are specified at 2.5 V
+	 * eg. 3.3 V: 1.77, 1.47, 3.6 V: 2.11, 1.69, 2.0 V: 0.64, 0.8
+	 * @param xy  scale of the x and y limits
+	 * @param z  scale of the z limits
+	 */
+	public void setLimitScale(double xy, double z) {
+		this._scaleXY = xy;
+		this._scaleZ = z;
+	}
+
+	/**
+	 * Run the self-test
+	 * @return true if the output change of all axes is inside the limits
+	 * @throws IOException
+	 */
+	public boolean run() throws IOException {
+		TiADXL345 adxl = this._adxl;
+		int bw = adxl.readRegister(TiADXL345.ADXL345_BW_RATE);
+		int power = adxl.readRegister(TiADXL345.ADXL345_POWER_CTL);
+		int format = adxl.readRegister(TiADXL345.ADXL345_DATA_FORMAT);
+		double[] gains = adxl.getAxisGains();
+		for (int i = 0; i < 3; i++) {
+			this._gains[i] = gains[i];
+		}
+
+		// keep SPI and INT_INVERT, full resolution, right justified, +-16 g
+		int testFormat = (format & 0x60) | 0x0b;
+		try {
+			ADXL345Transaction tx = adxl.beginTransaction();
+			tx.set(TiADXL345.ADXL345_BW_RATE, ADXL345_SELF_TEST_RATE).set(TiADXL345.ADXL345_POWER_CTL, 0)
+					.set(TiADXL345.ADXL345_DATA_FORMAT, testFormat).commit();
+			tx.set(TiADXL345.ADXL345_POWER_CTL, 0x08).commit();
+
+			this.settle();
+			adxl.readAverage(this._samples, this._off, 0);
+
+			tx.set(TiADXL345.ADXL345_DATA_FORMAT, testFormat | 0x80).commit();
+			this.settle();
+			adxl.readAverage(this._samples, this._on, 0);
+		} finally {
+			ADXL345Transaction tx = adxl.beginTransaction();
+			tx.set(TiADXL345.ADXL345_POWER_CTL, 0).set(TiADXL345.ADXL345_DATA_FORMAT, format).commit();
+			tx.set(TiADXL345.ADXL345_BW_RATE, bw).set(TiADXL345.ADXL345_POWER_CTL, power).commit();
+			adxl.setAxisGains(this._gains);
+		}
+
+		this._failed = 0;
+		for (int i = 0; i < 3; i++) {
+			this._delta[i] = this._on[i] - this._off[i];
+			double scale = (i == 2) ? this._scaleZ : this._scaleXY;
+			if ((this._delta[i] < ADXL345_SELF_TEST_MIN[i] * scale)
+					|| (this._delta[i] > ADXL345_SELF_TEST_MAX[i] * scale)) {
+				this._failed |= 1 << i;
+			}
+		}
+		return this._failed == 0;
+	}
+
+	private void settle() {
+		Delay.msDelay(ADXL345_SELF_TEST_SETTLE * 5 / 4 + 1);
+	}
+
+	/**
+	 * Result of the last run
+	 * @return
+	 */
+	public boolean isPassed() {
+		return this._failed == 0;
+	}
+
+	/**
+	 * Axes out of limits in the last run
+	 * @return bit 0: x, bit 1: y, bit 2: z
+	 */
+	public int getFailedAxes() {
+		return this._failed;
+	}
+
+	/**
+	 * Output change of an axis in the last run
+	 * @param axis  0: x, 1: y, 2: z
+	 * @return LSB at full resolution, 3.9 mg/LSB
+	 */
+	public int getDelta(int axis) {
+		return this._delta[axis];
+	}
+
+	/**
+	 * Output change of an axis in the last run
+	 * @param axis  0: x, 1: y, 2: z
+	 * @return milli-g
+	 */
+	public int getDeltaMilliG(int axis) {
+		return this._delta[axis] * 39 / 10;
+	}
+}
@@ -0,0 +1,535 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Register accurate simulation of the ADXL345 behind the transport interface,
+ * runs on any JVM without a sensor attached.
+ *
+ * Covered: DEVID, writable configuration registers, DATA_FORMAT encoding
+ * (range, FULL_RES, JUSTIFY, SELF_TEST), OFSX, OFSY and OFSZ user offsets,
+ * output data rate from BW_RATE, the 32 level FIFO in bypass, FIFO, stream
+ * and trigger mode, FIFO_STATUS, INT_SOURCE with DATA_READY, WATERMARK and OVERRUN, and
+ * INT1/INT2 pin events through INT_MAP.
+ * Tap, activity and free-fall detection are not simulated, use fireInterrupt
+ * to raise those events.
+ *
+ * Time only advances with advance/step, or on every transaction in real-time
+ * mode. Pin events are only delivered from advance, step, fireInterrupt and
+ * update, never from inside a transaction.
+ *
+ *  eg: ADXL345SimulatedDevice sim = new ADXL345SimulatedDevice();
+ *      sim.setAcceleration(0, 0, 1000);
+ *      TiADXL345 adxl = new TiADXL345(sim);
+ *      adxl.powerOn();
+ *      sim.step(10);
+ *      int[] xyz = adxl.readXYZ();
+ */
+public class ADXL345SimulatedDevice implements ADXL345Transport {
+
+	public static final int ADXL345_DEVID_VALUE = 0xE5;
+
+	private static final int DEPTH = TiADXL345.ADXL345_FIFO_MAX_ENTRIES;
+
+	/* output change of the self-test force in milli-g */
+	private static final int[] SELF_TEST_MG = { 800, -800, 1200 };
+
+	private byte[] _regs = new byte[TiADXL345.ADXL345_FIFO_STATUS + 1];
+
+	/* FIFO entries as encoded register values, oldest at _head */
+	private short[] _fifo = new short[DEPTH * 3];
+	private int _head = 0;
+	private int _entries = 0;
+	private boolean _triggered = false;
+
+	/* data registers */
+	private short[] _out = new short[3];
+	private boolean _dataReady = false;
+	private boolean _overrun = false;
+
+	/* latched interrupt bits other than DATA_READY, WATERMARK and OVERRUN */
+	private int _latched = 0;
+
+	/* acceleration in milli-g */
+	private int[] _accel = new int[3];
+	private int _noise = 0;
+	private int _seed = 0x1234567;
+
+	/* simulated time in ns */
+	private long _time = 0;
+	private long _nextSample = 0;
+	private boolean _realTime = false;
+	private long _realLast = 0;
+
+	private ADXL345PinEventListener _pinListener = null;
+	private int _pins = 0;
+
+	/* bus faults */
+	private int _faults = 0;
+	private boolean _detached = false;
+
+	private long _transactions = 0;
+	private long _bytesRead = 0;
+	private long _bytesWritten = 0;
+
+	public ADXL345SimulatedDevice() {
+		this.reset();
+	}
+
+	/**
+	 * Power-on reset, all registers back to their reset value
+	 */
+	public synchronized void reset() {
+		for (int i = 0; i < this._regs.length; i++) {
+			this._regs[i] = 0;
+		}
+		this._regs[TiADXL345.ADXL345_DEVID] = (byte) ADXL345_DEVID_VALUE;
+		this._regs[TiADXL345.ADXL345_BW_RATE] = 0x0a;
+		this._head = 0;
+		this._entries = 0;
+		this._triggered = false;
+		this._out[0] = this._out[1] = this._out[2] = 0;
+		this._dataReady = false;
+		this._overrun = false;
+		this._latched = 0;
+		this._pins = 0;
+	}
+
+	/**
+	 * Sets the acceleration seen by the sensor in milli-g
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public synchronized void setAcceleration(int x, int y, int z) {
+		this._accel[0] = x;
+		this._accel[1] = y;
+		this._accel[2] = z;
+	}
+
+	/**
+	 * Sets the amplitude in milli-g of a uniform noise added to every sample
+	 * @param noise
+	 */
+	public synchronized void setNoise(int noise) {
+		this._noise = noise;
+	}
+
+	/**
+	 * Sets the Asleep bit of ACT_TAP_STATUS
+	 * @param asleep
+	 */
+	public synchronized void setAsleep(boolean asleep) {
+		if (asleep) {
+			this._regs[TiADXL345.ADXL345_ACT_TAP_STATUS] |= 0x08;
+		} else {
+			this._regs[TiADXL345.ADXL345_ACT_TAP_STATUS] &= ~0x08;
+		}
+	}
+
+	/**
+	 * In real-time mode the simulated time follows System.nanoTime on every
+	 * transaction, use update to deliver the pending pin events
+	 * @param realTime
+	 */
+	public synchronized void setRealTime(boolean realTime) {
+		this._realTime = realTime;
+		this._realLast = System.nanoTime();
+	}
+
+	/**
+	 * Listener of the INT1/INT2 pins, called on the rising edge of the pin
+	 * @param listener
+	 */
+	public void setPinEventListener(ADXL345PinEventListener listener) {
+		this._pinListener = listener;
+	}
+
+	/**
+	 * Advance the simulated time, samples are produced at the rate of BW_RATE
+	 * while the device is measuring
+	 * @param micros
+	 * @throws IOException
+	 */
+	public void advance(long micros) throws IOException {
+		synchronized (this) {
+			this.advanceTime(micros * 1000);
+		}
+		this.dispatchPins();
+	}
+
+	/**
+	 * Advance the simulated time by count sample periods
+	 * @param count
+	 * @throws IOException
+	 */
+	public void step(int count) throws IOException {
+		synchronized (this) {
+			for (int i = 0; i < count; i++) {
+				this.advanceTime(this._nextSample - this._time);
+			}
+		}
+		this.dispatchPins();
+	}
+
+	/**
+	 * Catch up with real time and deliver pending pin events
+	 * @throws IOException
+	 */
+	public void update() throws IOException {
+		synchronized (this) {
+			this.syncRealTime();
+		}
+		this.dispatchPins();
+	}
+
+	/**
+	 * Raise an event that is detected by the sensor itself, the interrupt bit is
+	 * latched in INT_SOURCE when enabled in INT_ENABLE and can trigger the FIFO
+	 *  eg: fireInterrupt(TiADXL345.ADXL345_INT_SINGLE_TAP_BIT, 0x01); // tap on z
+	 * @param interruptBit
+	 * @param axes  source axes for ACT_TAP_STATUS, x: 0x04, y: 0x02, z: 0x01
+	 * @throws IOException
+	 */
+	public void fireInterrupt(int interruptBit, int axes) throws IOException {
+		synchronized (this) {
+			int mask = 1 << interruptBit;
+			if ((this._regs[TiADXL345.ADXL345_INT_ENABLE] & mask) == 0) {
+				return;
+			}
+			this._latched |= mask;
+			int status = this._regs[TiADXL345.ADXL345_ACT_TAP_STATUS] & 0x08;
+			if ((interruptBit == TiADXL345.ADXL345_INT_SINGLE_TAP_BIT)
+					|| (interruptBit == TiADXL345.ADXL345_INT_DOUBLE_TAP_BIT)) {
+				status |= axes & 0x07;
+			} else if (interruptBit == TiADXL345.ADXL345_INT_ACTIVITY_BIT) {
+				status |= (axes & 0x07) << 4;
+			}
+			this._regs[TiADXL345.ADXL345_ACT_TAP_STATUS] = (byte) status;
+
+			int fifoCtl = this._regs[TiADXL345.ADXL345_FIFO_CTL] & 0xff;
+			int pin = ((this._regs[TiADXL345.ADXL345_INT_MAP] & mask) != 0) ? 1 : 0;
+			if ((fifoCtl >> 6) == TiADXL345.ADXL345_FIFO_TRIGGER && !this._triggered && ((fifoCtl >> 5) & 1) == pin) {
+				int keep = fifoCtl & 0x1f;
+				while (this._entries > keep) {
+					this.pop();
+				}
+				this._triggered = true;
+			}
+		}
+		this.dispatchPins();
+	}
+
+	/**
+	 * Fail the next transactions with an IOException, as a glitch on the bus
+	 * @param count
+	 */
+	public synchronized void injectFaults(int count) {
+		this._faults = count;
+	}
+
+	/**
+	 * Device dropped off the bus, all transactions fail until attached again.
+	 * Call reset() as well to simulate a power cycle.
+	 * @param detached
+	 */
+	public synchronized void setDetached(boolean detached) {
+		this._detached = detached;
+	}
+
+	public synchronized long getTransactions() {
+		return this._transactions;
+	}
+
+	public synchronized long getBytesRead() {
+		return this._bytesRead;
+	}
+
+	public synchronized long getBytesWritten() {
+		return this._bytesWritten;
+	}
+
+	public synchronized void resetCounters() {
+		this._transactions = 0;
+		this._bytesRead = 0;
+		this._bytesWritten = 0;
+	}
+
+	/**
+	 * Sample period of the current BW_RATE code or wakeup rate in sleep mode
+	 * @return period in ns
+	 */
+	public synchronized long getSamplePeriod() {
+		int powerCtl = this._regs[TiADXL345.ADXL345_POWER_CTL];
+		if ((powerCtl & 0x04) != 0) {
+			return 125000000L << (powerCtl & 0x03); // 8, 4, 2, 1 Hz
+		}
+		return 312500L << (15 - (this._regs[TiADXL345.ADXL345_BW_RATE] & 0x0f)); // 3200 Hz >> (15 - code)
+	}
+
+	private void checkBus() throws IOException {
+		if (this._detached) {
+			throw new IOException("no acknowledge");
+		}
+		if (this._faults > 0) {
+			this._faults--;
+			throw new IOException("bus fault");
+		}
+	}
+
+	public synchronized void read(int address, byte[] buff, int off, int num) throws IOException {
+		this.syncRealTime();
+		this._transactions++;
+		this.checkBus();
+		this._bytesRead += num;
+
+		boolean data = false;
+		boolean intSource = false;
+		for (int i = 0; i < num; i++) {
+			int a = address + i;
+			int v;
+			if ((a >= TiADXL345.ADXL345_DATAX0) && (a <= TiADXL345.ADXL345_DATAZ1)) {
+				if (!data) {
+					this.loadOutput();
+					data = true;
+				}
+				int s = this._out[(a - TiADXL345.ADXL345_DATAX0) >> 1];
+				v = ((a & 1) == 0) ? s : (s >> 8);
+			} else if (a == TiADXL345.ADXL345_INT_SOURCE) {
+				v = this.intSource();
+				intSource = true;
+			} else if (a == TiADXL345.ADXL345_FIFO_STATUS) {
+				v = (this._triggered ? 0x80 : 0) | (this.isBypass() ? 0 : this._entries);
+			} else if (a < this._regs.length) {
+				v = this._regs[a];
+			} else {
+				v = 0;
+			}
+			buff[off + i] = (byte) v;
+		}
+
+		// data bits are cleared by reading the data registers, others by reading INT_SOURCE
+		if (data) {
+			this._dataReady = false;
+			this._overrun = false;
+		}
+		if (intSource) {
+			this._latched = 0;
+		}
+		this._pins &= this.pinState();
+	}
+
+	public synchronized void write(int address, byte[] buff, int off, int num) throws IOException {
+		this.syncRealTime();
+		this._transactions++;
+		this.checkBus();
+		this._bytesWritten += num;
+
+		for (int i = 0; i < num; i++) {
+			int a = address + i;
+			if ((a >= 64) || ((TiADXL345.ADXL345_CONFIG_REGS >> a) & 1) == 0) {
+				continue; // read only
+			}
+			int old = this._regs[a] & 0xff;
+			int v = buff[off + i] & 0xff;
+			this._regs[a] = (byte) v;
+
+			if (a == TiADXL345.ADXL345_POWER_CTL) {
+				if ((old & 0x08) == 0 && (v & 0x08) != 0) {
+					this._nextSample = this._time + this.getSamplePeriod();
+				}
+			} else if (a == TiADXL345.ADXL345_BW_RATE) {
+				this._nextSample = this._time + this.getSamplePeriod();
+			} else if (a == TiADXL345.ADXL345_FIFO_CTL) {
+				if ((v >> 6) == TiADXL345.ADXL345_FIFO_BYPASS) {
+					this._head = 0;
+					this._entries = 0;
+				}
+				if ((v >> 6) != TiADXL345.ADXL345_FIFO_TRIGGER) {
+					this._triggered = false;
+				}
+			}
+		}
+		this._pins &= this.pinState();
+	}
+
+	private boolean isMeasuring() {
+		return (this._regs[TiADXL345.ADXL345_POWER_CTL] & 0x08) != 0;
+	}
+
+	private boolean isBypass() {
+		return ((this._regs[TiADXL345.ADXL345_FIFO_CTL] >> 6) & 3) == TiADXL345.ADXL345_FIFO_BYPASS;
+	}
+
+	private void syncRealTime() {
+		if (this._realTime) {
+			long now = System.nanoTime();
+			this.advanceTime(now - this._realLast);
+			this._realLast = now;
+		}
+	}
+
+	private void advanceTime(long nanos) {
+		this._time += nanos;
+		if (!this.isMeasuring()) {
+			this._nextSample = this._time + this.getSamplePeriod();
+			return;
+		}
+		while (this._nextSample <= this._time) {
+			this.sample();
+			this._nextSample += this.getSamplePeriod();
+		}
+	}
+
+	/**
+	 * Produce one sample and queue it according to the FIFO mode
+	 */
+	private void sample() {
+		int x = this._accel[0] + this.offset(TiADXL345.ADXL345_OFSX);
+		int y = this._accel[1] + this.offset(TiADXL345.ADXL345_OFSY);
+		int z = this._accel[2] + this.offset(TiADXL345.ADXL345_OFSZ);
+		if ((this._regs[TiADXL345.ADXL345_DATA_FORMAT] & 0x80) != 0) {
+			// self-test force
+			x += SELF_TEST_MG[0];
+			y += SELF_TEST_MG[1];
+			z += SELF_TEST_MG[2];
+		}
+		x = this.encode(x);
+		y = this.encode(y);
+		z = this.encode(z);
+
+		if (this.isBypass()) {
+			if (this._dataReady) {
+				this._overrun = true;
+			}
+			this._out[0] = (short) x;
+			this._out[1] = (short) y;
+			this._out[2] = (short) z;
+			this._dataReady = true;
+			return;
+		}
+
+		int mode = (this._regs[TiADXL345.ADXL345_FIFO_CTL] >> 6) & 3;
+		if (this._entries == DEPTH) {
+			this._overrun = true;
+			if ((mode == TiADXL345.ADXL345_FIFO_FIFO) || this._triggered) {
+				return; // FIFO mode keeps the oldest samples
+			}
+			this.pop();
+		}
+		int i = ((this._head + this._entries) % DEPTH) * 3;
+		this._fifo[i] = (short) x;
+		this._fifo[i + 1] = (short) y;
+		this._fifo[i + 2] = (short) z;
+		this._entries++;
+	}
+
+	/**
+	 * Move the oldest FIFO entry to the data registers
+	 */
+	private void loadOutput() {
+		if (this.isBypass() || (this._entries == 0)) {
+			return;
+		}
+		int i = this._head * 3;
+		this._out[0] = this._fifo[i];
+		this._out[1] = this._fifo[i + 1];
+		this._out[2] = this._fifo[i + 2];
+		this.pop();
+	}
+
+	private void pop() {
+		this._head = (this._head + 1) % DEPTH;
+		this._entries--;
+	}
+
+	private int intSource() {
+		int v = this._latched;
+		if (this._overrun) {
+			v |= 1 << TiADXL345.ADXL345_INT_OVERRUNY_BIT;
+		}
+		if (this.isBypass()) {
+			if (this._dataReady) {
+				v |= 1 << TiADXL345.ADXL345_INT_DATA_READY_BIT;
+			}
+		} else {
+			if (this._entries > 0) {
+				v |= 1 << TiADXL345.ADXL345_INT_DATA_READY_BIT;
+			}
+			if (this._entries >= (this._regs[TiADXL345.ADXL345_FIFO_CTL] & 0x1f)) {
+				v |= 1 << TiADXL345.ADXL345_INT_WATERMARK_BIT;
+			}
+		}
+		return v;
+	}
+
+	/**
+	 * User offset of an axis in milli-g, 15.6 mg/LSB
+	 * @param reg OFSX, OFSY or OFSZ
+	 * @return
+	 */
+	private int offset(int reg) {
+		return this._regs[reg] * 156 / 10;
+	}
+
+	/**
+	 * Convert milli-g to the register value of the current DATA_FORMAT
+	 * @param mg
+	 * @return
+	 */
+	private int encode(int mg) {
+		if (this._noise > 0) {
+			this._seed = this._seed * 1103515245 + 12345;
+			mg += ((this._seed >>> 8) % (2 * this._noise + 1)) - this._noise;
+		}
+		int format = this._regs[TiADXL345.ADXL345_DATA_FORMAT];
+		int range = format & 0x03;
+		boolean fullRes = (format & 0x08) != 0;
+		int bits = fullRes ? 10 + range : 10;
+
+		int counts = (mg * 256 / 1000) >> (fullRes ? 0 : range);
+		int max = (1 << (bits - 1)) - 1;
+		if (counts > max) {
+			counts = max;
+		} else if (counts < -max - 1) {
+			counts = -max - 1;
+		}
+		if ((format & 0x04) != 0) {
+			counts <<= 16 - bits;
+		}
+		return counts;
+	}
+
+	/**
+	 * Level of the interrupt pins, bit 0: INT1, bit 1: INT2
+	 * @return
+	 */
+	private int pinState() {
+		int active = this.intSource() & this._regs[TiADXL345.ADXL345_INT_ENABLE];
+		int map = this._regs[TiADXL345.ADXL345_INT_MAP];
+		return (((active & ~map) != 0) ? 1 : 0) | (((active & map) != 0) ? 2 : 0);
+	}
+
+	/**
+	 * Deliver rising edges of INT1/INT2 to the pin listener
+	 * @throws IOException
+	 */
+	private void dispatchPins() throws IOException {
+		int rising;
+		synchronized (this) {
+			int pins = this.pinState();
+			rising = pins & ~this._pins;
+			this._pins = pins;
+		}
+		ADXL345PinEventListener listener = this._pinListener;
+		if (listener == null) {
+			return;
+		}
+		if ((rising & 1) != 0) {
+			listener.onPinEvent(TiADXL345.ADXL345_INT1_PIN);
+		}
+		if ((rising & 2) != 0) {
+			listener.onPinEvent(TiADXL345.ADXL345_INT2_PIN);
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Fixed-point vibration spectrum of blocks of samples
+ * Samples are collected into blocks of N per axis. For every block the mean is
+ * removed, a Hann window is applied and a real FFT is computed as a complex
+ * FFT of N/2 points, Q15 twiddles and one bit of scaling per stage. Per axis the
+ * power of every bin, the energy of the configured bands and the dominant
+ * frequency are then available until the next block.
+ *
+ * All buffers and tables are allocated at construction. The power values are
+ * relative: the spectrum is scaled by 2/N and the window is not compensated.
+ *
+ *  eg: ADXL345Spectrum fft = new ADXL345Spectrum(256, new int[] { 10, 50, 100, 200, 400 }, listener);
+ *      fft.setRate(adxl);
+ *      ADXL345InterruptAcquisition acq = new ADXL345InterruptAcquisition(adxl, fft);
+ */
+public class ADXL345Spectrum implements ADXL345SampleListener {
+
+	private int _size;
+	private int _half;
+	private double _rate = 100;
+
+	private short[] _block;
+	private int _filled = 0;
+
+	private int[] _window; // Hann, Q15
+	private int[] _cos; // cos(2 pi k / N), Q15, k < N / 2
+	private int[] _sin;
+	private int[] _bitrev;
+
+	private int[] _re;
+	private int[] _im;
+	private long[] _power; // 3 axes of N / 2 + 1 bins
+
+	private int[] _bandEdges; // Hz
+	private int[] _bandBins;
+	private long[] _bandEnergy; // 3 axes of bands
+	private int[] _peakBin = new int[3];
+
+	private ADXL345SpectrumListener _listener;
+
+	/**
+	 * Initialize with block size and band edges
+	 * @param size  samples per block, power of 2 between 16 and 1024
+	 * @param bandEdges  ascending band edges in Hz, bands are [edge i, edge i+1)
+	 * @param listener  called after every block, can be null
+	 */
+	public ADXL345Spectrum(int size, int[] bandEdges, ADXL345SpectrumListener listener) {
+		if ((size < 16) || (size > 1024) || ((size & (size - 1)) != 0)) {
+			throw new IllegalArgumentException("size must be a power of 2, 16 to 1024");
+		}
+		this._size = size;
+		this._half = size / 2;
+		this._listener = listener;
+
+		this._block = new short[size * 3];
+		this._window = new int[size];
+		this._cos = new int[this._half];
+		this._sin = new int[this._half];
+		this._bitrev = new int[this._half];
+		this._re = new int[this._half];
+		this._im = new int[this._half];
+		this._power = new long[(this._half + 1) * 3];
+
+		for (int n = 0; n < size; n++) {
+			this._window[n] = (int) (16383.5 * (1 - Math.cos(2 * Math.PI * n / size)));
+		}
+		for (int k = 0; k < this._half; k++) {
+			this._cos[k] = (int) Math.round(32767 * Math.cos(2 * Math.PI * k / size));
+			this._sin[k] = (int) Math.round(32767 * Math.sin(2 * Math.PI * k / size));
+		}
+		int bits = 0;
+		while ((1 << bits) < this._half) {
+			bits++;
+		}
+		for (int i = 0; i < this._half; i++) {
+			int r = 0;
+			for (int b = 0; b < bits; b++) {
+				r |= ((i >> b) & 1) << (bits - 1 - b);
+			}
+			this._bitrev[i] = r;
+		}
+
+		this._bandEdges = bandEdges;
+		this._bandBins = new int[bandEdges.length];
+		this._bandEnergy = new long[(bandEdges.length > 0 ? bandEdges.length - 1 : 0) * 3];
+		this.updateBands();
+	}
+
+	/**
+	 * Sets the output data rate of the samples
+	 * @param rate  Hz
+	 */
+	public void setRate(double rate) {
+		this._rate = rate;
+		this.updateBands();
+	}
+
+	/**
+	 * Sets the output data rate from BW_RATE of the sensor
+	 * @param adxl
+	 * @throws IOException
+	 */
+	public void setRate(TiADXL345 adxl) throws IOException {
+		this.setRate(adxl.getRate());
+	}
+
+	public double getRate() {
+		return this._rate;
+	}
+
+	public int getSize() {
+		return this._size;
+	}
+
+	/**
+	 * Frequency resolution, rate / N
+	 * @return Hz per bin
+	 */
+	public double getBinWidth() {
+		return this._rate / this._size;
+	}
+
+	/**
+	 * Collect samples, a block is analysed as soon as it is complete
+	 */
+	public void onSamples(short[] xyz, int offset, int count, long timestamp) {
+		while (count > 0) {
+			int n = this._size - this._filled;
+			if (n > count) {
+				n = count;
+			}
+			System.arraycopy(xyz, offset, this._block, this._filled * 3, n * 3);
+			this._filled += n;
+			offset += n * 3;
+			count -= n;
+			if (this._filled == this._size) {
+				this._filled = 0;
+				this.analyse();
+				if (this._listener != null) {
+					this._listener.onSpectrum(this, timestamp);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Analyse one complete block
+	 * @param xyz  N samples of interleaved x, y, z counts
+	 * @param offset
+	 */
+	public void analyse(short[] xyz, int offset) {
+		System.arraycopy(xyz, offset, this._block, 0, this._size * 3);
+		this.analyse();
+	}
+
+	/**
+	 * Gets the power of a frequency bin
+	 * @param axis  0: x, 1: y, 2: z
+	 * @param bin  0 to N / 2, the frequency is bin * getBinWidth()
+	 * @return
+	 */
+	public long getPower(int axis, int bin) {
+		return this._power[axis * (this._half + 1) + bin];
+	}
+
+	public int getBandCount() {
+		return (this._bandBins.length > 1) ? this._bandBins.length - 1 : 0;
+	}
+
+	/**
+	 * Gets the energy of a band, sum of the power of its bins
+	 * @param axis  0: x, 1: y, 2: z
+	 * @param band
+	 * @return
+	 */
+	public long getBandEnergy(int axis, int band) {
+		return this._bandEnergy[axis * this.getBandCount() + band];
+	}
+
+	/**
+	 * Gets the bin with the highest power, DC excluded
+	 * @param axis  0: x, 1: y, 2: z
+	 * @return
+	 */
+	public int getDominantBin(int axis) {
+		return this._peakBin[axis];
+	}
+
+	/**
+	 * Gets the frequency of the bin with the highest power, DC excluded
+	 * @param axis  0: x, 1: y, 2: z
+	 * @return Hz
+	 */
+	public double getDominantFrequency(int axis) {
+		return this._peakBin[axis] * this._rate / this._size;
+	}
+
+	private void updateBands() {
+		for (int i = 0; i < this._bandEdges.length; i++) {
+			int bin = (int) (this._bandEdges[i] * this._size / this._rate + 0.5);
+			if (bin > this._half + 1) {
+				bin = this._half + 1;
+			}
+			this._bandBins[i] = bin;
+		}
+	}
+
+	private void analyse() {
+		for (int axis = 0; axis < 3; axis++) {
+			this.analyseAxis(axis);
+		}
+	}
+
+	private void analyseAxis(int axis) {
+		int n = this._size;
+		int m = this._half;
+		short[] block = this._block;
+		int[] re = this._re;
+		int[] im = this._im;
+
+		int sum = 0;
+		for (int i = axis; i < n * 3; i += 3) {
+			sum += block[i];
+		}
+		int mean = sum / n;
+
+		// pack even samples as real and odd samples as imaginary part, bit reversed
+		for (int i = 0; i < m; i++) {
+			int j = this._bitrev[i];
+			int e = 2 * i;
+			re[j] = ((block[e * 3 + axis] - mean) * this._window[e]) >> 15;
+			im[j] = ((block[(e + 1) * 3 + axis] - mean) * this._window[e + 1]) >> 15;
+		}
+
+		// radix-2 FFT of m points, scaled by 1/2 per stage
+		for (int len = 2; len <= m; len <<= 1) {
+			int half = len >> 1;
+			int step = n / len;
+			for (int i = 0; i < m; i += len) {
+				for (int j = 0; j < half; j++) {
+					int c = this._cos[j * step];
+					int s = this._sin[j * step];
+					int p = i + j;
+					int q = p + half;
+					int tr = (re[q] * c + im[q] * s) >> 15;
+					int ti = (im[q] * c - re[q] * s) >> 15;
+					re[q] = (re[p] - tr) >> 1;
+					im[q] = (im[p] - ti) >> 1;
+					re[p] = (re[p] + tr) >> 1;
+					im[p] = (im[p] + ti) >> 1;
+				}
+			}
+		}
+
+		// split into the spectrum of the real sequence, bins 0 to m
+		int base = axis * (m + 1);
+		long peak = -1;
+		for (int k = 0; k <= m; k++) {
+			int a = (k == m) ? 0 : k;
+			int b = (k == 0) ? 0 : m - k;
+			int ar = re[a];
+			int ai = im[a];
+			int br = re[b];
+			int bi = im[b];
+			int er = (ar + br) >> 1;
+			int ei = (ai - bi) >> 1;
+			int or = (ai + bi) >> 1;
+			int oi = (br - ar) >> 1;
+			int c = (k == m) ? -32767 : this._cos[k];
+			int s = (k == m) ? 0 : this._sin[k];
+			int xr = er + ((c * or + s * oi) >> 15);
+			int xi = ei + ((c * oi - s * or) >> 15);
+			long p = (long) xr * xr + (long) xi * xi;
+			this._power[base + k] = p;
+			if ((k > 0) && (p > peak)) {
+				peak = p;
+				this._peakBin[axis] = k;
+			}
+		}
+
+		int bands = this.getBandCount();
+		for (int i = 0; i < bands; i++) {
+			long e = 0;
+			for (int k = this._bandBins[i]; (k < this._bandBins[i + 1]) && (k <= m); k++) {
+				e += this._power[base + k];
+			}
+			this._bandEnergy[axis * bands + i] = e;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package tijos.framework.sensor.adxl345;
+
+/**
+ * Receives the result of every block analysed by ADXL345Spectrum
+ *
+ */
+public interface ADXL345SpectrumListener {
+
+	/**
+	 * Called when a block has been analysed, read the results with the getters
+	 * of spectrum, they are overwritten by the next block
+	 * @param spectrum
+	 * @param timestamp  time of the newest sample of the block in microseconds
+	 */
+	void onSpectrum(ADXL345Spectrum spectrum, long timestamp);
+}
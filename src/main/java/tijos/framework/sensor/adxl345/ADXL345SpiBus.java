@@ -0,0 +1,21 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Full duplex SPI port used by ADXL345SpiTransport, implement it on top of the
+ * SPI master of the board (mode 3, up to 5 MHz)
+ *
+ */
+public interface ADXL345SpiBus {
+
+	/**
+	 * Assert chip select, clock out len bytes of tx while clocking in len bytes
+	 * to rx, then release chip select
+	 * @param tx
+	 * @param rx
+	 * @param len
+	 * @throws IOException
+	 */
+	void transfer(byte[] tx, byte[] rx, int len) throws IOException;
+}
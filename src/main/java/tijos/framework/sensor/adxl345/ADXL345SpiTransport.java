@@ -0,0 +1,54 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * 4-wire SPI register access of the ADXL345
+ * Multi-byte transfers set the MB bit so that a sample or a register range is
+ * read or written in one chip select cycle, the SPI bit of DATA_FORMAT must be
+ * left at 0 (4-wire mode).
+ * SPI is required to sustain the 3200 Hz output data rate (BW_RATE code 0xF).
+ *
+ *  eg: TiADXL345 adxl = new TiADXL345(new ADXL345SpiTransport(spiBus));
+ */
+public class ADXL345SpiTransport implements ADXL345Transport {
+
+	private static final int ADXL345_SPI_READ = 0x80;
+	private static final int ADXL345_SPI_MB = 0x40;
+
+	private static final int ADXL345_SPI_MAX = 64; // max bytes per transfer
+
+	private ADXL345SpiBus _spi = null;
+
+	private byte[] _tx = new byte[ADXL345_SPI_MAX + 1];
+	private byte[] _rx = new byte[ADXL345_SPI_MAX + 1];
+
+	/**
+	 * Initialize with SPI port
+	 * @param spi
+	 */
+	public ADXL345SpiTransport(ADXL345SpiBus spi) {
+		this._spi = spi;
+	}
+
+	public synchronized void read(int address, byte[] buff, int off, int num) throws IOException {
+		if (num > ADXL345_SPI_MAX) {
+			throw new IllegalArgumentException("num range overflow");
+		}
+		this._tx[0] = (byte) (ADXL345_SPI_READ | ((num > 1) ? ADXL345_SPI_MB : 0) | (address & 0x3f));
+		for (int i = 1; i <= num; i++) {
+			this._tx[i] = 0;
+		}
+		this._spi.transfer(this._tx, this._rx, num + 1);
+		System.arraycopy(this._rx, 1, buff, off, num);
+	}
+
+	public synchronized void write(int address, byte[] buff, int off, int num) throws IOException {
+		if (num > ADXL345_SPI_MAX) {
+			throw new IllegalArgumentException("num range overflow");
+		}
+		this._tx[0] = (byte) (((num > 1) ? ADXL345_SPI_MB : 0) | (address & 0x3f));
+		System.arraycopy(buff, off, this._tx, 1, num);
+		this._spi.transfer(this._tx, this._rx, num + 1);
+	}
+}
@@ -0,0 +1,249 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Configuration transaction of TiADXL345
+ * Register changes are collected in memory and written on commit, contiguous
+ * registers (eg. THRESH_TAP to TAP_AXES) are merged into one burst write.
+ * Registers where only some bits are changed are merged with the current value
+ * on commit, served from the register cache of the driver when it is enabled.
+ *
+ *  eg: adxl.beginTransaction()
+ *          .tapThreshold(48).tapDuration(16).doubleTapLatency(80).doubleTapWindow(200)
+ *          .tapAxes(true, true, true)
+ *          .interrupt(TiADXL345.ADXL345_INT_DOUBLE_TAP_BIT, true)
+ *          .commit();
+ *
+ * Registers are written in ascending address order. A change of BW_RATE or
+ * DATA_FORMAT while measuring applies from the next sample, samples already
+ * in the FIFO keep the old rate and format.
+ */
+public class ADXL345Transaction {
+
+	private TiADXL345 _adxl;
+
+	private byte[] _values = new byte[TiADXL345.ADXL345_FIFO_STATUS + 1];
+	private byte[] _masks = new byte[TiADXL345.ADXL345_FIFO_STATUS + 1];
+	private long _dirty = 0;
+
+	ADXL345Transaction(TiADXL345 adxl) {
+		this._adxl = adxl;
+	}
+
+	/**
+	 * Sets the value of a register
+	 * @param address register address, writable registers only
+	 * @param val
+	 * @return this transaction
+	 */
+	public ADXL345Transaction set(int address, int val) {
+		return this.setBits(address, 0xff, val);
+	}
+
+	/**
+	 * Sets one bit of a register, other bits are left alone
+	 * @param address
+	 * @param bitPos
+	 * @param state
+	 * @return this transaction
+	 */
+	public ADXL345Transaction setBit(int address, int bitPos, boolean state) {
+		return this.setBits(address, 1 << bitPos, state ? (1 << bitPos) : 0);
+	}
+
+	/**
+	 * Sets the bits of a register selected by mask, other bits are left alone
+	 * @param address
+	 * @param mask
+	 * @param val
+	 * @return this transaction
+	 */
+	public ADXL345Transaction setBits(int address, int mask, int val) {
+		if ((address < 0) || (address >= 64) || ((TiADXL345.ADXL345_CONFIG_REGS >> address) & 1) == 0) {
+			throw new IllegalArgumentException("register is not writable");
+		}
+		this._values[address] = (byte) ((this._values[address] & ~mask) | (val & mask));
+		this._masks[address] |= (byte) mask;
+		this._dirty |= (1L << address);
+		return this;
+	}
+
+	public ADXL345Transaction tapThreshold(int tapThreshold) {
+		return this.set(TiADXL345.ADXL345_THRESH_TAP, tapThreshold);
+	}
+
+	public ADXL345Transaction axisOffset(int x, int y, int z) {
+		this.set(TiADXL345.ADXL345_OFSX, x);
+		this.set(TiADXL345.ADXL345_OFSY, y);
+		return this.set(TiADXL345.ADXL345_OFSZ, z);
+	}
+
+	public ADXL345Transaction tapDuration(int tapDuration) {
+		return this.set(TiADXL345.ADXL345_DUR, tapDuration);
+	}
+
+	public ADXL345Transaction doubleTapLatency(int doubleTapLatency) {
+		return this.set(TiADXL345.ADXL345_LATENT, doubleTapLatency);
+	}
+
+	public ADXL345Transaction doubleTapWindow(int doubleTapWindow) {
+		return this.set(TiADXL345.ADXL345_WINDOW, doubleTapWindow);
+	}
+
+	public ADXL345Transaction activityThreshold(int activityThreshold) {
+		return this.set(TiADXL345.ADXL345_THRESH_ACT, activityThreshold);
+	}
+
+	public ADXL345Transaction inactivityThreshold(int inactivityThreshold) {
+		return this.set(TiADXL345.ADXL345_THRESH_INACT, inactivityThreshold);
+	}
+
+	public ADXL345Transaction timeInactivity(int timeInactivity) {
+		return this.set(TiADXL345.ADXL345_TIME_INACT, timeInactivity);
+	}
+
+	/**
+	 * Axis enable control for activity and inactivity detection
+	 * @return this transaction
+	 */
+	public ADXL345Transaction activityAxes(boolean ac, boolean x, boolean y, boolean z) {
+		return this.setBits(TiADXL345.ADXL345_ACT_INACT_CTL, 0xf0,
+				(ac ? 0x80 : 0) | (x ? 0x40 : 0) | (y ? 0x20 : 0) | (z ? 0x10 : 0));
+	}
+
+	public ADXL345Transaction inactivityAxes(boolean ac, boolean x, boolean y, boolean z) {
+		return this.setBits(TiADXL345.ADXL345_ACT_INACT_CTL, 0x0f,
+				(ac ? 0x08 : 0) | (x ? 0x04 : 0) | (y ? 0x02 : 0) | (z ? 0x01 : 0));
+	}
+
+	public ADXL345Transaction freeFallThreshold(int freeFallThreshold) {
+		return this.set(TiADXL345.ADXL345_THRESH_FF, freeFallThreshold);
+	}
+
+	public ADXL345Transaction freeFallDuration(int freeFallDuration) {
+		return this.set(TiADXL345.ADXL345_TIME_FF, freeFallDuration);
+	}
+
+	/**
+	 * Axis control for single tap/double tap, the suppress bit is left alone
+	 * @return this transaction
+	 */
+	public ADXL345Transaction tapAxes(boolean x, boolean y, boolean z) {
+		return this.setBits(TiADXL345.ADXL345_TAP_AXES, 0x07, (x ? 0x04 : 0) | (y ? 0x02 : 0) | (z ? 0x01 : 0));
+	}
+
+	/**
+	 * Sets the rate code of BW_RATE, the LOW_POWER bit is left alone
+	 * @param bw_code ADXL345_BW_3 to ADXL345_BW_1600
+	 * @return this transaction
+	 */
+	public ADXL345Transaction bw(int bw_code) {
+		if ((bw_code < TiADXL345.ADXL345_BW_3) || (bw_code > TiADXL345.ADXL345_BW_1600)) {
+			throw new IllegalArgumentException("bw_code range overflow");
+		}
+		return this.setBits(TiADXL345.ADXL345_BW_RATE, 0x0f, bw_code);
+	}
+
+	public ADXL345Transaction lowPower(boolean state) {
+		return this.setBit(TiADXL345.ADXL345_BW_RATE, 4, state);
+	}
+
+	public ADXL345Transaction interrupt(int interruptBit, boolean state) {
+		return this.setBit(TiADXL345.ADXL345_INT_ENABLE, interruptBit, state);
+	}
+
+	public ADXL345Transaction interruptMapping(int interruptBit, int interruptPin) {
+		return this.setBit(TiADXL345.ADXL345_INT_MAP, interruptBit, interruptPin > 0);
+	}
+
+	/**
+	 * Sets the range bits of DATA_FORMAT, possible values are: 2, 4, 8, 16
+	 * @return this transaction
+	 */
+	public ADXL345Transaction range(int range) {
+		int s;
+		switch (range) {
+		case 4:
+			s = 1;
+			break;
+		case 8:
+			s = 2;
+			break;
+		case 16:
+			s = 3;
+			break;
+		default:
+			s = 0;
+		}
+		return this.setBits(TiADXL345.ADXL345_DATA_FORMAT, 0x03, s);
+	}
+
+	public ADXL345Transaction fullRes(boolean state) {
+		return this.setBit(TiADXL345.ADXL345_DATA_FORMAT, 3, state);
+	}
+
+	/**
+	 * Sets mode, trigger pin and samples of FIFO_CTL
+	 * @return this transaction
+	 */
+	public ADXL345Transaction fifo(int mode, int samples, int interruptPin) {
+		if ((mode < TiADXL345.ADXL345_FIFO_BYPASS) || (mode > TiADXL345.ADXL345_FIFO_TRIGGER)) {
+			throw new IllegalArgumentException("fifo mode range overflow");
+		}
+		if ((samples < 0) || (samples > 31)) {
+			throw new IllegalArgumentException("fifo samples range overflow");
+		}
+		return this.set(TiADXL345.ADXL345_FIFO_CTL, (mode << 6) | ((interruptPin > 0) ? 0x20 : 0) | samples);
+	}
+
+	/**
+	 * Write the collected changes to the device, one burst write per range of
+	 * contiguous registers. The transaction is empty afterwards and can be
+	 * reused. When a write fails, the ranges not written stay in the transaction
+	 * and commit can be called again.
+	 * Other configuration calls of the driver wait until the commit is done.
+	 * @return number of bus writes
+	 * @throws IOException
+	 */
+	public int commit() throws IOException {
+		synchronized (this._adxl) {
+			int writes = 0;
+			int address = 0;
+			while (this._dirty != 0) {
+				while (((this._dirty >> address) & 1) == 0) {
+					address++;
+				}
+				int start = address;
+				while (((this._dirty >> address) & 1) != 0) {
+					int mask = this._masks[address] & 0xff;
+					if (mask != 0xff) {
+						int b = this._adxl.readRegister(address);
+						this._values[address] = (byte) ((b & ~mask) | (this._values[address] & mask));
+					}
+					address++;
+				}
+				this._adxl.writeTo(start, this._values, start, address - start);
+				writes++;
+
+				// a range is done only when written, a failed commit keeps it and the later ones
+				for (int a = start; a < address; a++) {
+					this._masks[a] = 0;
+					this._dirty &= ~(1L << a);
+				}
+			}
+			return writes;
+		}
+	}
+
+	/**
+	 * Drop the collected changes
+	 */
+	public void clear() {
+		this._dirty = 0;
+		for (int i = 0; i < this._masks.length; i++) {
+			this._masks[i] = 0;
+			this._values[i] = 0;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Register access of the ADXL345, one call is one bus transaction
+ *
+ */
+public interface ADXL345Transport {
+
+	/**
+	 * Reads num consecutive registers starting from address
+	 * @param address
+	 * @param buff
+	 * @param off
+	 * @param num
+	 * @throws IOException
+	 */
+	void read(int address, byte[] buff, int off, int num) throws IOException;
+
+	/**
+	 * Writes num consecutive registers starting from address
+	 * @param address
+	 * @param buff
+	 * @param off
+	 * @param num
+	 * @throws IOException
+	 */
+	void write(int address, byte[] buff, int off, int num) throws IOException;
+}
@@ -0,0 +1,302 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Capture of the waveform around tap, activity or free-fall events with the
+ * FIFO in trigger mode
+ * The FIFO keeps the latest samples until an event mapped to the trigger pin
+ * occurs, then it holds the pre-trigger samples and collects the following
+ * ones. The pre-trigger samples are drained on the trigger, the post-trigger
+ * window is streamed on WATERMARK interrupts of the same pin into a buffer
+ * allocated once. The complete waveform goes to the listener, then the FIFO
+ * is re-armed through bypass mode.
+ *
+ *  eg: ADXL345TriggerCapture capture = new ADXL345TriggerCapture(adxl, listener, 128);
+ *      capture.arm(TiADXL345.ADXL345_INT1_PIN, 1 << TiADXL345.ADXL345_INT_SINGLE_TAP_BIT, 16, 96);
+ *      // in the GPIO event handler of the INT1 pin
+ *      capture.onPinEvent(TiADXL345.ADXL345_INT1_PIN);
+ *
+ * Put the device in measure mode and configure the event thresholds before
+ * arm. Without a pin handler call poll faster than 32 sample periods.
+ */
+public class ADXL345TriggerCapture implements ADXL345PinEventListener {
+
+	private static final int STATE_IDLE = 0;
+	private static final int STATE_ARMED = 1;
+	private static final int STATE_CAPTURING = 2;
+
+	private TiADXL345 _adxl;
+	private ADXL345CaptureListener _listener;
+
+	private short[] _samples;
+	private int _capacity;
+
+	private int _state = STATE_IDLE;
+	private int _pin = TiADXL345.ADXL345_INT1_PIN;
+	private int _events = 0;
+	private int _preTrigger = 0;
+	private int _length = 0;
+	private double _period = 0; // micros
+
+	/* current waveform */
+	private int _count = 0;
+	private int _triggerIndex = 0;
+	private long _triggerTimestamp = 0;
+	private int _source = 0;
+	private int _actTapStatus = 0;
+	private boolean _overflow = false;
+
+	private long _captures = 0;
+	private long _overflows = 0;
+
+	/**
+	 * Initialize with driver, listener and the size of the capture buffer
+	 * @param adxl
+	 * @param listener
+	 * @param maxSamples  longest waveform, pre-trigger plus post-trigger samples
+	 */
+	public ADXL345TriggerCapture(TiADXL345 adxl, ADXL345CaptureListener listener, int maxSamples) {
+		if (maxSamples < 2) {
+			throw new IllegalArgumentException("maxSamples must be at least 2");
+		}
+		this._adxl = adxl;
+		this._listener = listener;
+		this._capacity = maxSamples;
+		this._samples = new short[maxSamples * 3];
+	}
+
+	/**
+	 * Map the events to the pin and arm the FIFO in trigger mode on that pin
+	 * @param interruptPin  ADXL345_INT1_PIN or ADXL345_INT2_PIN
+	 * @param events  mask of interrupt bits, eg. 1 << ADXL345_INT_SINGLE_TAP_BIT
+	 * @param preTrigger  samples before the trigger, 1 to 31
+	 * @param postTrigger  samples from the trigger on
+	 * @throws IOException
+	 */
+	public synchronized void arm(int interruptPin, int events, int preTrigger, int postTrigger) throws IOException {
+		if ((preTrigger < 1) || (preTrigger > 31)) {
+			throw new IllegalArgumentException("preTrigger range overflow");
+		}
+		if ((postTrigger < 1) || (preTrigger + postTrigger > this._capacity)) {
+			throw new IllegalArgumentException("postTrigger range overflow");
+		}
+		events &= ~((1 << TiADXL345.ADXL345_INT_DATA_READY_BIT) | (1 << TiADXL345.ADXL345_INT_WATERMARK_BIT)
+				| (1 << TiADXL345.ADXL345_INT_OVERRUNY_BIT));
+		if (events == 0) {
+			throw new IllegalArgumentException("no trigger event");
+		}
+		this.disarm();
+
+		this._pin = interruptPin;
+		this._events = events;
+		this._preTrigger = preTrigger;
+		this._length = preTrigger + postTrigger;
+		this._period = 1000000 / this._adxl.getRate();
+
+		ADXL345Transaction t = this._adxl.beginTransaction();
+		for (int bit = 0; bit < 8; bit++) {
+			if (((events >> bit) & 1) != 0) {
+				t.interruptMapping(bit, interruptPin).interrupt(bit, true);
+			}
+		}
+		t.interruptMapping(TiADXL345.ADXL345_INT_WATERMARK_BIT, interruptPin).commit();
+		this.rearm();
+	}
+
+	/**
+	 * Stop capturing, the trigger events stay enabled and the FIFO is bypassed
+	 * @throws IOException
+	 */
+	public synchronized void disarm() throws IOException {
+		if (this._state == STATE_IDLE) {
+			return;
+		}
+		this._state = STATE_IDLE;
+		this._adxl.beginTransaction()
+				.interrupt(TiADXL345.ADXL345_INT_WATERMARK_BIT, false)
+				.fifo(TiADXL345.ADXL345_FIFO_BYPASS, 0, 0)
+				.commit();
+	}
+
+	public synchronized boolean isArmed() {
+		return this._state != STATE_IDLE;
+	}
+
+	/**
+	 * Handle the trigger and the WATERMARK interrupts of the pin
+	 */
+	public void onPinEvent(int interruptPin) throws IOException {
+		if (interruptPin == this._pin) {
+			this.poll();
+		}
+	}
+
+	/**
+	 * Check for the trigger and collect the available post-trigger samples
+	 * @return true if a waveform was completed
+	 * @throws IOException
+	 */
+	public synchronized boolean poll() throws IOException {
+		if (this._state == STATE_ARMED) {
+			int status = this._adxl.readInterruptStatus();
+			int source = status & this._events;
+			if (source == 0) {
+				return false;
+			}
+			long now = System.nanoTime() / 1000;
+			this._count = 0;
+			this._overflow = false;
+			int n = this.drain();
+			this._triggerIndex = (n < this._preTrigger) ? n : this._preTrigger;
+			this._triggerTimestamp = now - (long) ((n - this._triggerIndex) * this._period);
+			this._source = source;
+			this._actTapStatus = (status >> 16) & 0xff;
+			this._state = STATE_CAPTURING;
+
+			if (this._count < this._length) {
+				this._adxl.beginTransaction().interrupt(TiADXL345.ADXL345_INT_WATERMARK_BIT, true).commit();
+			}
+		} else if (this._state == STATE_CAPTURING) {
+			// drain below the watermark so that the pin is released and the next edge is not missed
+			int n;
+			do {
+				n = this.drain();
+			} while ((n >= this._preTrigger) && (this._count < this._length));
+		} else {
+			return false;
+		}
+
+		if (this._count < this._length) {
+			return false;
+		}
+
+		this._captures++;
+		if (this._overflow) {
+			this._overflows++;
+		}
+		this._adxl.beginTransaction().interrupt(TiADXL345.ADXL345_INT_WATERMARK_BIT, false).commit();
+		if (this._listener != null) {
+			this._listener.onCapture(this);
+		}
+		if (this._state == STATE_CAPTURING) {
+			this.rearm();
+		}
+		return true;
+	}
+
+	/**
+	 * Read the FIFO entries into the window, the level is checked before it is
+	 * clamped to the window: a full FIFO stopped collecting and dropped samples
+	 * @return samples read
+	 * @throws IOException
+	 */
+	private int drain() throws IOException {
+		int entries = this._adxl.getFifoEntries();
+		if (entries >= TiADXL345.ADXL345_FIFO_SIZE) {
+			this._overflow = true;
+		}
+		int n = this._length - this._count;
+		if (entries < n) {
+			n = entries;
+		}
+		this._adxl.readSamples(this._samples, this._count * 3, n);
+		this._count += n;
+		return entries;
+	}
+
+	private void rearm() throws IOException {
+		// the trigger is cleared by bypass mode
+		this._adxl.beginTransaction().fifo(TiADXL345.ADXL345_FIFO_BYPASS, 0, 0).commit();
+		this._adxl.beginTransaction().fifo(TiADXL345.ADXL345_FIFO_TRIGGER, this._preTrigger, this._pin).commit();
+		this._adxl.getInterruptSource(); // drop events latched meanwhile
+		this._state = STATE_ARMED;
+	}
+
+	/**
+	 * Samples of the waveform, interleaved x, y, z counts
+	 * @return buffer shared with the next capture
+	 */
+	public short[] getSamples() {
+		return this._samples;
+	}
+
+	/**
+	 * Samples in the waveform
+	 * @return
+	 */
+	public int getCount() {
+		return this._count;
+	}
+
+	/**
+	 * Index of the first sample from the trigger on, samples before it are the
+	 * pre-trigger history
+	 * @return
+	 */
+	public int getTriggerIndex() {
+		return this._triggerIndex;
+	}
+
+	/**
+	 * Estimated time of the trigger sample
+	 * @return microseconds, System.nanoTime() / 1000
+	 */
+	public long getTriggerTimestamp() {
+		return this._triggerTimestamp;
+	}
+
+	/**
+	 * Estimated time of a sample from the trigger time and the output data rate
+	 * @param index
+	 * @return microseconds, System.nanoTime() / 1000
+	 */
+	public long getTimestamp(int index) {
+		return this._triggerTimestamp + (long) ((index - this._triggerIndex) * this._period);
+	}
+
+	/**
+	 * Sample period of the output data rate when armed
+	 * @return microseconds
+	 */
+	public double getSamplePeriod() {
+		return this._period;
+	}
+
+	/**
+	 * Trigger events of INT_SOURCE
+	 * @return mask of interrupt bits
+	 */
+	public int getSource() {
+		return this._source;
+	}
+
+	/**
+	 * ACT_TAP_STATUS read on the trigger, the axes of the tap or activity
+	 * @return
+	 */
+	public int getActTapStatus() {
+		return this._actTapStatus;
+	}
+
+	/**
+	 * True if the FIFO filled up during the post-trigger window, the waveform
+	 * misses the samples taken while it was full
+	 * @return
+	 */
+	public boolean isOverflow() {
+		return this._overflow;
+	}
+
+	public long getCaptureCount() {
+		return this._captures;
+	}
+
+	/**
+	 * Waveforms with missing samples
+	 * @return
+	 */
+	public long getOverflowCount() {
+		return this._overflows;
+	}
+}
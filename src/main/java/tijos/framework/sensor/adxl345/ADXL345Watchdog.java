@@ -0,0 +1,201 @@
+package tijos.framework.sensor.adxl345;
+
+import java.io.IOException;
+
+/**
+ * Health watchdog of an ADXL345
+ * Each check reads DEVID and compares one configuration register against the
+ * register image, a device that dropped off the bus or lost its configuration
+ * in a brown-out is restored from the image of the last configuration.
+ *
+ * Capture the configuration when setup is complete, call poll from the
+ * application loop, and recover when a read failed.
+ *
+ *  eg: ADXL345Watchdog watchdog = new ADXL345Watchdog(adxl, 1000);
+ *      watchdog.captureConfig();
+ *      while (true) {
+ *          try {
+ *              watchdog.poll();
+ *              double[] g = adxl.readGxyz();
+ *              ...
+ *          } catch (IOException ex) {
+ *              watchdog.recover();
+ *          }
+ *      }
+ */
+public class ADXL345Watchdog {
+
+	private TiADXL345 _adxl;
+	private long _period; // micros
+	private ADXL345RegisterImage _image = null;
+
+	private long _nextCheck;
+	private boolean _healthy = true;
+	private long _faultSince = 0;
+
+	private long _checks = 0;
+	private long _faults = 0;
+	private long _recoveries = 0;
+	private long _failedRecoveries = 0;
+	private long _lastRecoveryTime = 0;
+	private long _maxRecoveryTime = 0;
+	private IOException _lastError = null;
+
+	/**
+	 * Initialize with driver and check period
+	 * @param adxl
+	 * @param periodMillis  time between two checks of poll
+	 */
+	public ADXL345Watchdog(TiADXL345 adxl, int periodMillis) {
+		if (periodMillis <= 0) {
+			throw new IllegalArgumentException("period must be positive");
+		}
+		this._adxl = adxl;
+		this._period = periodMillis * 1000L;
+		this._nextCheck = System.nanoTime() / 1000 + this._period;
+	}
+
+	/**
+	 * Capture the current configuration of the device as the one to restore
+	 * @throws IOException
+	 */
+	public synchronized void captureConfig() throws IOException {
+		this._image = ADXL345RegisterImage.capture(this._adxl);
+	}
+
+	/**
+	 * Sets the configuration to restore, null to only check DEVID
+	 * @param image
+	 */
+	public synchronized void setConfig(ADXL345RegisterImage image) {
+		this._image = image;
+	}
+
+	public synchronized ADXL345RegisterImage getConfig() {
+		return this._image;
+	}
+
+	/**
+	 * Check the device when the period elapsed
+	 * @return true if the device is healthy
+	 */
+	public synchronized boolean poll() {
+		long now = System.nanoTime() / 1000;
+		if (now - this._nextCheck < 0) {
+			return this._healthy;
+		}
+		this._nextCheck = now + this._period;
+		return this.check();
+	}
+
+	/**
+	 * Check the device now, recover it when DEVID is wrong, the bus fails or the
+	 * configuration was lost
+	 * @return true if the device is healthy
+	 */
+	public synchronized boolean check() {
+		this._checks++;
+		try {
+			if ((this._adxl.readID() == TiADXL345.ADXL345_DEVICE_ID)
+					&& ((this._image == null) || !this._image.isReset(this._adxl))) {
+				this._healthy = true;
+				return true;
+			}
+		} catch (IOException ex) {
+			this._lastError = ex;
+		}
+		return this.recover();
+	}
+
+	/**
+	 * Recover the device, eg. after a read of the application failed. The
+	 * configuration image is restored only when the device lost it, restoring
+	 * goes through standby and clears the FIFO.
+	 * @return true if the device answers with its configuration intact or restored
+	 *         and verified
+	 */
+	public synchronized boolean recover() {
+		long now = System.nanoTime() / 1000;
+		if (this._healthy) {
+			this._healthy = false;
+			this._faults++;
+			this._faultSince = now;
+		}
+		try {
+			if (this._adxl.readID() != TiADXL345.ADXL345_DEVICE_ID) {
+				this._failedRecoveries++;
+				return false;
+			}
+			// a glitch that left the configuration intact keeps the FIFO contents
+			if ((this._image != null) && this._image.isReset(this._adxl) && !this._image.restore(this._adxl)) {
+				this._failedRecoveries++;
+				return false;
+			}
+		} catch (IOException ex) {
+			this._lastError = ex;
+			this._failedRecoveries++;
+			return false;
+		}
+
+		long time = System.nanoTime() / 1000 - this._faultSince;
+		this._lastRecoveryTime = time;
+		if (time > this._maxRecoveryTime) {
+			this._maxRecoveryTime = time;
+		}
+		this._recoveries++;
+		this._healthy = true;
+		return true;
+	}
+
+	public synchronized boolean isHealthy() {
+		return this._healthy;
+	}
+
+	/**
+	 * Checks done
+	 * @return
+	 */
+	public synchronized long getChecks() {
+		return this._checks;
+	}
+
+	/**
+	 * Faults detected, a fault lasts until the device is recovered
+	 * @return
+	 */
+	public synchronized long getFaults() {
+		return this._faults;
+	}
+
+	public synchronized long getRecoveries() {
+		return this._recoveries;
+	}
+
+	/**
+	 * Recovery attempts that failed
+	 * @return
+	 */
+	public synchronized long getFailedRecoveries() {
+		return this._failedRecoveries;
+	}
+
+	/**
+	 * Time from the detection of the last fault to its recovery
+	 * @return microseconds
+	 */
+	public synchronized long getLastRecoveryTime() {
+		return this._lastRecoveryTime;
+	}
+
+	/**
+	 * Longest recovery time
+	 * @return microseconds
+	 */
+	public synchronized long getMaxRecoveryTime() {
+		return this._maxRecoveryTime;
+	}
+
+	public synchronized IOException getLastError() {
+		return this._lastError;
+	}
+}
@@ -3,11 +3,17 @@ package tijos.framework.sensor.adxl345;
 import java.io.IOException;
 
 import tijos.framework.devicecenter.TiI2CMaster;
+import tijos.framework.util.Delay;
 import tijos.framework.util.LittleBitConverter;
 
 /**
  * TiADXL345 3-Axis, ±2 g/±4 g/±8 g/±16 g Digital Accelerometer driver for TiJOS 
  * 
+ * The driver can be shared by threads: register access and read-modify-write
+ * sequences hold the lock of the driver, sample reads only hold a lock of
+ * their own and never wait for configuration calls. Use the methods with a
+ * destination array from several threads, readXYZ() and readGxyz() return an
+ * array shared by all callers.
  */
 public class TiADXL345 {
 
@@ -44,6 +50,10 @@ public class TiADXL345 {
 	public static final int ADXL345_FIFO_CTL = 0x38;
 	public static final int ADXL345_FIFO_STATUS = 0x39;
 
+	/*
+	 * BW_RATE rate codes, getRate() returns the output data rate of the datasheet:
+	 * 3200 Hz >> (15 - code), eg. 0xF is 3200 Hz and needs the SPI transport
+	 */
 	public static final int ADXL345_BW_1600 = 0xF; // 1111
 	public static final int ADXL345_BW_800 = 0xE; // 1110
 	public static final int ADXL345_BW_400 = 0xD; // 1101
@@ -55,6 +65,19 @@ public class TiADXL345 {
 	public static final int ADXL345_BW_6 = 0x7; // 0111
 	public static final int ADXL345_BW_3 = 0x6; // 0110
 
+	/* FIFO modes, FIFO_CTL D7:D6 */
+	public static final int ADXL345_FIFO_BYPASS = 0x00;
+	public static final int ADXL345_FIFO_FIFO = 0x01;
+	public static final int ADXL345_FIFO_STREAM = 0x02;
+	public static final int ADXL345_FIFO_TRIGGER = 0x03;
+
+	/*
+	 * Max entries reported by FIFO_STATUS: 32 FIFO levels plus the output
+	 * data registers
+	 */
+	public static final int ADXL345_FIFO_MAX_ENTRIES = 33;
+	public static final int ADXL345_FIFO_SIZE = 32;
+
 	/*
 	 * Interrupt PINs INT1: 0 INT2: 1
 	 */
@@ -80,6 +103,13 @@ public class TiADXL345 {
 	public static final int ADXL345_WATERMARK = 0x01;
 	public static final int ADXL345_OVERRUNY = 0x00;
 
+	/* fixed DEVID value */
+	public static final int ADXL345_DEVICE_ID = 0xe5;
+
+	/* I2C device address selected by the ALT ADDRESS pin */
+	public static final int ADXL345_I2C_ADDRESS = 0x53; // ALT ADDRESS low
+	public static final int ADXL345_I2C_ADDRESS_ALT = 0x1D; // ALT ADDRESS high
+
 	public static final int ADXL345_OK = 1; // no error
 	public static final int ADXL345_ERROR = 0; // indicates error is predent
 
@@ -87,38 +117,101 @@ public class TiADXL345 {
 	public static final int ADXL345_READ_ERROR = 1; // problem reading accel
 	public static final int ADXL345_BAD_ARG = 2; // bad method argument
 
-	private static final int ADXL345_DEVICE = 0x53; // ADXL345 device address
 	private static final int ADXL345_TO_READ = 6; // num of bytes we are going to read each time (two bytes for each
 													// axis)
 
+	/*
+	 * Writable configuration registers, also the registers held by the shadow
+	 * cache: THRESH_TAP to INT_MAP except ACT_TAP_STATUS, DATA_FORMAT and FIFO_CTL
+	 */
+	static final long ADXL345_CONFIG_REGS = (((1L << (ADXL345_INT_MAP + 1)) - (1L << ADXL345_THRESH_TAP))
+			& ~(1L << ADXL345_ACT_TAP_STATUS)) | (1L << ADXL345_DATA_FORMAT) | (1L << ADXL345_FIFO_CTL);
+
 	private double[] _gains = new double[3];
+	private int[] _mgScale = new int[3]; // milli-g per count, Q16
+
+	/*
+	 * Output format tracked from DATA_FORMAT: scale relevant bits (range and
+	 * FULL_RES) and the right shift that turns the data registers into counts
+	 */
+	private int _format = 0;
+	private volatile int _shift = 0;
 
-	private byte[] _buff = new byte[8];
+	/*
+	 * _buff serves register access under the lock of the driver, _data serves
+	 * the data registers and FIFO_STATUS under its own lock, so sample reads and
+	 * FIFO drains never wait for configuration calls. The bus itself is
+	 * arbitrated by the transport.
+	 */
+	private byte[] _buff = new byte[32];
+	private byte[] _data = new byte[ADXL345_TO_READ];
+	private byte[] _status = new byte[1]; // FIFO_STATUS, under the lock of _data
+
+	private boolean _cacheEnabled = false;
+	private long _cacheValid = 0;
+	private byte[] _shadow = new byte[ADXL345_FIFO_STATUS + 1];
+	private short[] _average = new short[ADXL345_FIFO_MAX_ENTRIES * 3]; // readAverage, under its own lock
 	private int[] _xyzi = new int[3];
 	private double[] _xyzd = new double[3];
 
-	private TiI2CMaster _i2c = null;
+	private ADXL345Transport _transport = null;
+
+	private ADXL345Metrics _metrics = null;
+	private byte[] _lastData = new byte[ADXL345_TO_READ];
 
 	/**
 	 * Initialize with I2C object
 	 * @param i2c
 	 */
 	public TiADXL345(TiI2CMaster i2c) {
-		this._i2c = i2c;
+		this(new ADXL345I2CTransport(i2c));
+	}
+
+	/**
+	 * Initialize with I2C object and device address
+	 * @param i2c
+	 * @param address ADXL345_I2C_ADDRESS or ADXL345_I2C_ADDRESS_ALT
+	 */
+	public TiADXL345(TiI2CMaster i2c, int address) {
+		this(new ADXL345I2CTransport(i2c, address));
+	}
+
+	/**
+	 * Initialize with a register transport, eg. ADXL345SimulatedDevice
+	 * @param transport
+	 */
+	public TiADXL345(ADXL345Transport transport) {
+		this._transport = transport;
 		this._gains[0] = 0.0039;
 		this._gains[1] = 0.0039;
 		this._gains[2] = 0.0039;
+		this.updateMilliGScale();
+	}
+
+	/**
+	 * Count samples, duplicates, overruns and FIFO levels into metrics, null
+	 * to stop counting. Bus transactions are counted by
+	 * ADXL345InstrumentedTransport.
+	 * @param metrics
+	 */
+	public void setMetrics(ADXL345Metrics metrics) {
+		this._metrics = metrics;
+	}
+
+	public ADXL345Metrics getMetrics() {
+		return this._metrics;
 	}
 
 	/**
 	 * // Turning on the ADXL345
+	 * Measurement mode with Link, AUTO_SLEEP and Sleep cleared, through standby
+	 * as the sleep bits must not be cleared while measuring, use
+	 * ADXL345PowerController for the sleep modes
 	 * @throws IOException
 	 */
-	public void powerOn() throws IOException {
-		
+	public synchronized void powerOn() throws IOException {
 		this.writeTo(ADXL345_POWER_CTL, 0);
-		this.writeTo(ADXL345_POWER_CTL, 16);
-		this.writeTo(ADXL345_POWER_CTL, 8);
+		this.writeTo(ADXL345_POWER_CTL, 0x08);
 	}
 
 	/**
@@ -126,7 +219,7 @@ public class TiADXL345 {
 	 * @return device id
 	 * @throws IOException
 	 */
-	public int readID() throws IOException {
+	public synchronized int readID() throws IOException {
 		byte[] buff = this.readFrom(ADXL345_DEVID, 1);
 		return buff[0] & 0xff;
 	}
@@ -137,28 +230,167 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int[] readXYZ() throws IOException {
-		byte[] buf = this.readFrom(ADXL345_DATAX0, ADXL345_TO_READ); 
-		this._xyzi[0] = LittleBitConverter.ToInt16(buf, 0);
-		this._xyzi[1] = LittleBitConverter.ToInt16(buf, 2);
-		this._xyzi[2] = LittleBitConverter.ToInt16(buf, 4);
+		this.readXYZ(this._xyzi, 0);
 		return this._xyzi;
 	}
 
+	/**
+	 * read the acceleration data into dst[offset] to dst[offset + 2],
+	 * no internal array is used
+	 * @param dst
+	 * @param offset
+	 * @throws IOException
+	 */
+	public void readXYZ(int[] dst, int offset) throws IOException {
+		synchronized (this._data) {
+			byte[] buf = this.readData();
+			int shift = this._shift;
+			dst[offset] = LittleBitConverter.ToInt16(buf, 0) >> shift;
+			dst[offset + 1] = LittleBitConverter.ToInt16(buf, 2) >> shift;
+			dst[offset + 2] = LittleBitConverter.ToInt16(buf, 4) >> shift;
+		}
+	}
+
 	/**
 	 * read acceleration of gravity
 	 * @return acceleration of gravity
 	 * @throws IOException
 	 */
 	public double[] readGxyz() throws IOException {
-		int i;
-		int[] xyz;
-		xyz = this.readXYZ();
-		for (i = 0; i < 3; i++) {
-			this._xyzd[i] = xyz[i] * this._gains[i];
-		}
+		this.readGxyz(this._xyzd, 0);
 		return this._xyzd;
 	}
 
+	/**
+	 * read acceleration of gravity into dst[offset] to dst[offset + 2],
+	 * no internal array is used
+	 * @param dst
+	 * @param offset
+	 * @throws IOException
+	 */
+	public void readGxyz(double[] dst, int offset) throws IOException {
+		synchronized (this._data) {
+			byte[] buf = this.readData();
+			int shift = this._shift;
+			dst[offset] = (LittleBitConverter.ToInt16(buf, 0) >> shift) * this._gains[0];
+			dst[offset + 1] = (LittleBitConverter.ToInt16(buf, 2) >> shift) * this._gains[1];
+			dst[offset + 2] = (LittleBitConverter.ToInt16(buf, 4) >> shift) * this._gains[2];
+		}
+	}
+
+	/**
+	 * read acceleration in milli-g into dst[offset] to dst[offset + 2],
+	 * integer arithmetic only, no internal array is used
+	 * @param dst
+	 * @param offset
+	 * @throws IOException
+	 */
+	public void readMilliG(int[] dst, int offset) throws IOException {
+		synchronized (this._data) {
+			byte[] buf = this.readData();
+			int shift = this._shift;
+			dst[offset] = ((LittleBitConverter.ToInt16(buf, 0) >> shift) * this._mgScale[0] + 0x8000) >> 16;
+			dst[offset + 1] = ((LittleBitConverter.ToInt16(buf, 2) >> shift) * this._mgScale[1] + 0x8000) >> 16;
+			dst[offset + 2] = ((LittleBitConverter.ToInt16(buf, 4) >> shift) * this._mgScale[2] + 0x8000) >> 16;
+		}
+	}
+
+	/**
+	 * Convert count samples from interleaved x, y, z counts to milli-g,
+	 * src and dst may not overlap
+	 *  eg: n = adxl.drainFifo(raw, 0, 32); adxl.convertToMilliG(raw, 0, mg, 0, n);
+	 * @param src
+	 * @param srcOffset
+	 * @param dst
+	 * @param dstOffset
+	 * @param count
+	 */
+	public void convertToMilliG(short[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+		int sx = this._mgScale[0];
+		int sy = this._mgScale[1];
+		int sz = this._mgScale[2];
+		int end = srcOffset + count * 3;
+		while (srcOffset < end) {
+			dst[dstOffset++] = (src[srcOffset++] * sx + 0x8000) >> 16;
+			dst[dstOffset++] = (src[srcOffset++] * sy + 0x8000) >> 16;
+			dst[dstOffset++] = (src[srcOffset++] * sz + 0x8000) >> 16;
+		}
+	}
+
+	/**
+	 * Gets the milli-g per count scale factors used by readMilliG, in Q16 format
+	 * @return
+	 */
+	public int[] getMilliGScale() {
+		return this._mgScale;
+	}
+
+	/**
+	 * read count samples into dst as interleaved x, y, z counts, one 6-byte
+	 * burst read per sample. In FIFO, stream and trigger mode every read pops
+	 * one FIFO entry, use getFifoEntries or drainFifo to not read past the
+	 * queued samples.
+	 * @param dst  destination, 3 values per sample
+	 * @param offset  index of the first x value in dst
+	 * @param count
+	 * @throws IOException
+	 */
+	public void readSamples(short[] dst, int offset, int count) throws IOException {
+		if ((offset < 0) || (count < 0) || (offset + count * 3 > dst.length)) {
+			throw new IllegalArgumentException("dst range overflow");
+		}
+		synchronized (this._data) {
+			int shift = this._shift;
+			for (int i = 0; i < count; i++) {
+				byte[] buf = this.readData();
+				dst[offset++] = (short) (LittleBitConverter.ToInt16(buf, 0) >> shift);
+				dst[offset++] = (short) (LittleBitConverter.ToInt16(buf, 2) >> shift);
+				dst[offset++] = (short) (LittleBitConverter.ToInt16(buf, 4) >> shift);
+			}
+		}
+	}
+
+
+	/**
+	 * Read DATA_FORMAT from the device and update the scale factors and the
+	 * decoding of the data registers, use it when the sensor was configured
+	 * before this driver was created
+	 * @throws IOException
+	 */
+	public synchronized void syncDataFormat() throws IOException {
+		byte[] buff = this.readFrom(ADXL345_DATA_FORMAT, 1);
+		this.updateDataFormat(buff[0] & 0xff);
+	}
+
+	/**
+	 * Gets the scale factor in g per count of the current range and resolution
+	 * @return
+	 */
+	public double getScale() {
+		return ((this._format & 0x08) != 0) ? 0.0039 : 0.0039 * (1 << (this._format & 0x03));
+	}
+
+	/**
+	 * Track a new DATA_FORMAT value, when range or FULL_RES change the axis gains
+	 * are reset to the scale factor of the new mode, JUSTIFY selects the shift
+	 * applied to the data registers
+	 * 10-bit mode: 3.9, 7.8, 15.6, 31.2 mg/LSB for 2, 4, 8, 16 g
+	 * full resolution: 3.9 mg/LSB, 10 to 13 bits
+	 * @param dataFormat
+	 */
+	private void updateDataFormat(int dataFormat) {
+		int bits = ((dataFormat & 0x08) != 0) ? 10 + (dataFormat & 0x03) : 10;
+		this._shift = ((dataFormat & 0x04) != 0) ? 16 - bits : 0;
+
+		if ((dataFormat & 0x0b) != this._format) {
+			this._format = dataFormat & 0x0b;
+			double scale = this.getScale();
+			for (int i = 0; i < 3; i++) {
+				this._gains[i] = scale;
+			}
+			this.updateMilliGScale();
+		}
+	}
 
 	/**
 	 * Gets the range setting and return it into rangeSetting,it can be 2, 4, 8 or 16
@@ -166,8 +398,7 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int getRangeSetting() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_DATA_FORMAT, 1);
-		return buff[0] & 3;
+		return this.readRegister(ADXL345_DATA_FORMAT) & 3;
 	}
 
 	/**
@@ -175,7 +406,7 @@ public class TiADXL345 {
 	 * @param val
 	 * @throws IOException
 	 */
-	public void setRangeSetting(int val) throws IOException {
+	public synchronized void setRangeSetting(int val) throws IOException {
 		int s;
 		int b;
 
@@ -195,8 +426,7 @@ public class TiADXL345 {
 		default:
 			s = 0;
 		}
-		byte[] buff = this.readFrom(ADXL345_DATA_FORMAT, 1);
-		b = buff[0];
+		b = this.readRegister(ADXL345_DATA_FORMAT);
 		s |= (b & 0xec);
 		this.writeTo(ADXL345_DATA_FORMAT, s);
 	}
@@ -315,19 +545,30 @@ public class TiADXL345 {
 	* the scale factor is 62.5 mg/LSB
 	*/
 	public int getTapThreshold() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_THRESH_TAP, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_THRESH_TAP) & 0xff;
 	}
 
 	/**
 	 *  set the gain for each axis in Gs / count
+	 *  the gains are reset to getScale() when range or FULL_RES are changed
 	 * @param gains
 	 */
-	public void setAxisGains(double[] gains) {
+	public synchronized void setAxisGains(double[] gains) {
 		int i;
 		for (i = 0; i < 3; i++) {
 			this._gains[i] = gains[i];
 		}
+		this.updateMilliGScale();
+	}
+
+	/**
+	 * Precompute the integer scale factors of the milli-g output from the gains,
+	 * Q16 keeps count * scale inside 32 bits up to 16 g
+	 */
+	private void updateMilliGScale() {
+		for (int i = 0; i < 3; i++) {
+			this._mgScale[i] = (int) (this._gains[i] * 1000 * 65536 + 0.5);
+		}
 	}
 
 	/**
@@ -345,10 +586,11 @@ public class TiADXL345 {
 	* a scale factor of 15.6mg/LSB
 	* OFSX, OFSY and OFSZ should be comprised between
 	 */
-	public void setAxisOffset(int x, int y, int z) throws IOException {
-		this.writeTo(ADXL345_OFSX, x);
-		this.writeTo(ADXL345_OFSY, y);
-		this.writeTo(ADXL345_OFSZ, z);
+	public synchronized void setAxisOffset(int x, int y, int z) throws IOException {
+		this._buff[0] = (byte) x;
+		this._buff[1] = (byte) y;
+		this._buff[2] = (byte) z;
+		this.writeTo(ADXL345_OFSX, this._buff, 0, 3);
 	}
 
 	/**
@@ -357,13 +599,115 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int[] getAxisOffset() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_OFSX, 1);
-		this._xyzi[0] = buff[0] & 0xff;
-		buff = this.readFrom(ADXL345_OFSY, 1);
-		this._xyzi[1] = buff[0] & 0xff;
-		buff = this.readFrom(ADXL345_OFSZ, 1);
-		this._xyzi[2] = buff[0] & 0xff;
-		return this._xyzi;
+		int[] offsets = new int[3];
+		this.getAxisOffset(offsets, 0);
+		return offsets;
+	}
+
+	/**
+	 *  Gets the OFSX, OFSY and OFSZ bytes into dst[offset] to dst[offset + 2]
+	 *  as signed values between -128 and 127, in one burst read
+	 * @param dst
+	 * @param offset
+	 * @throws IOException
+	 */
+	public synchronized void getAxisOffset(int[] dst, int offset) throws IOException {
+		byte[] buff;
+		int base;
+		if (this._cacheEnabled && ((this._cacheValid >> ADXL345_OFSX) & 7) == 7) {
+			buff = this._shadow;
+			base = ADXL345_OFSX;
+		} else {
+			buff = this.readFrom(ADXL345_OFSX, 3);
+			base = 0;
+			if (this._cacheEnabled) {
+				for (int i = 0; i < 3; i++) {
+					this._shadow[ADXL345_OFSX + i] = buff[i];
+				}
+				this._cacheValid |= (7L << ADXL345_OFSX);
+			}
+		}
+		dst[offset] = buff[base];
+		dst[offset + 1] = buff[base + 1];
+		dst[offset + 2] = buff[base + 2];
+	}
+
+	/**
+	 * Average samples in counts into dst[offset] to dst[offset + 2]
+	 * The FIFO is used in FIFO mode to collect the samples, one status read and
+	 * one burst read per sample, FIFO_CTL is restored afterwards unless another
+	 * thread changed it meanwhile. The device must be measuring. The lock of the
+	 * driver is held only while FIFO_CTL is written, not while waiting for the
+	 * samples.
+	 * @param samples
+	 * @param dst
+	 * @param offset
+	 * @throws IOException
+	 */
+	public void readAverage(int samples, int[] dst, int offset) throws IOException {
+		if (samples < 1) {
+			throw new IllegalArgumentException("samples range overflow");
+		}
+		synchronized (this._average) {
+			this.average(samples, dst, offset, this._average);
+		}
+	}
+
+	private void average(int samples, int[] dst, int offset, short[] block) throws IOException {
+		int fifoCtl;
+		int periodMs;
+		synchronized (this) {
+			fifoCtl = this.readRegister(ADXL345_FIFO_CTL);
+			periodMs = (int) (1000 / this.getRate()) + 1;
+
+			// bypass clears the FIFO
+			this.writeTo(ADXL345_FIFO_CTL, ADXL345_FIFO_BYPASS << 6);
+			this.writeTo(ADXL345_FIFO_CTL, ADXL345_FIFO_FIFO << 6);
+		}
+
+		int sx = 0;
+		int sy = 0;
+		int sz = 0;
+		int n = 0;
+		int idle = 0;
+		try {
+			while (n < samples) {
+				int want = samples - n;
+				if (want > ADXL345_FIFO_SIZE) {
+					want = ADXL345_FIFO_SIZE;
+				}
+				Delay.msDelay(want * periodMs);
+				int got = this.drainFifo(block, 0, want);
+				if (got == 0) {
+					if (++idle > 10) {
+						throw new IOException("ADXL345 no data, device not measuring");
+					}
+					continue;
+				}
+				idle = 0;
+				for (int i = 0; i < got * 3; i += 3) {
+					sx += block[i];
+					sy += block[i + 1];
+					sz += block[i + 2];
+				}
+				n += got;
+			}
+		} finally {
+			synchronized (this) {
+				if (this.readRegister(ADXL345_FIFO_CTL) == (ADXL345_FIFO_FIFO << 6)) {
+					this.writeTo(ADXL345_FIFO_CTL, ADXL345_FIFO_BYPASS << 6);
+					this.writeTo(ADXL345_FIFO_CTL, fifoCtl);
+				}
+			}
+		}
+
+		dst[offset] = divRound(sx, n);
+		dst[offset + 1] = divRound(sy, n);
+		dst[offset + 2] = divRound(sz, n);
+	}
+
+	private static int divRound(int sum, int n) {
+		return (sum >= 0) ? (sum + n / 2) / n : -((-sum + n / 2) / n);
 	}
 
 	/** Sets the DUR byte
@@ -382,8 +726,7 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int getTapDuration() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_DUR, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_DUR) & 0xff;
 	}
 
 	/**
@@ -402,8 +745,7 @@ public class TiADXL345 {
 	* Gets the Latent value
 	*/
 	public int getDoubleTapLatency() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_LATENT, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_LATENT) & 0xff;
 	}
 
 	/** 
@@ -422,8 +764,7 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int getDoubleTapWindow() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_WINDOW, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_WINDOW) & 0xff;
 	}
 
 	/**
@@ -446,8 +787,7 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int getActivityThreshold() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_THRESH_ACT, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_THRESH_ACT) & 0xff;
 	}
 
 	
@@ -469,8 +809,7 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int getInactivityThreshold() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_THRESH_INACT, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_THRESH_INACT) & 0xff;
 	}
 
 	/**
@@ -489,8 +828,7 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int getTimeInactivity() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_TIME_INACT, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_TIME_INACT) & 0xff;
 	}
 
 	/**
@@ -510,8 +848,7 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int getFreeFallThreshold() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_THRESH_FF, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_THRESH_FF) & 0xff;
 	}
 
 	/**
@@ -530,8 +867,7 @@ public class TiADXL345 {
 	 * @throws IOException
 	 */
 	public int getFreeFallDuration() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_TIME_FF, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_TIME_FF) & 0xff;
 	}
 
 	/**
@@ -685,12 +1021,11 @@ public class TiADXL345 {
 	}
 
 	public double getRate() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_BW_RATE, 1);
-		buff[0] &= 0xf;
-		return Math.pow(2, buff[0] - 6) * 6.25;
+		int b = this.readRegister(ADXL345_BW_RATE) & 0xf;
+		return Math.pow(2, b - 6) * 6.25;
 	}
 
-	public void setRate(double rate) throws IOException {
+	public synchronized void setRate(double rate) throws IOException {
 		int s;
 		int v = (int) (rate / 6.25);
 		int r = 0;
@@ -698,8 +1033,7 @@ public class TiADXL345 {
 			r++;
 		}
 		if (r <= 9) {
-			byte[] buff = this.readFrom(ADXL345_BW_RATE, 1);
-			s = (r + 6) | (buff[0] & 0xf0);
+			s = (r + 6) | (this.readRegister(ADXL345_BW_RATE) & 0xf0);
 			this.writeTo(ADXL345_BW_RATE, s);
 		}
 	}
@@ -713,8 +1047,133 @@ public class TiADXL345 {
 	}
 
 	public int get_bw_code() throws IOException {
-		byte[] buff = this.readFrom(ADXL345_BW_RATE, 1);
-		return buff[0] & 0xff;
+		return this.readRegister(ADXL345_BW_RATE) & 0xff;
+	}
+
+	/**
+	 * Sets the FIFO mode, possible values are: ADXL345_FIFO_BYPASS,
+	 * ADXL345_FIFO_FIFO, ADXL345_FIFO_STREAM, ADXL345_FIFO_TRIGGER
+	 * @param mode
+	 * @throws IOException
+	 */
+	public synchronized void setFifoMode(int mode) throws IOException {
+		if ((mode < ADXL345_FIFO_BYPASS) || (mode > ADXL345_FIFO_TRIGGER)) {
+			throw new IllegalArgumentException("fifo mode range overflow");
+		}
+		int b = this.readRegister(ADXL345_FIFO_CTL);
+		this.writeTo(ADXL345_FIFO_CTL, (mode << 6) | (b & 0x3f));
+	}
+
+	/**
+	 * Gets the FIFO mode
+	 * @return
+	 * @throws IOException
+	 */
+	public int getFifoMode() throws IOException {
+		return (this.readRegister(ADXL345_FIFO_CTL) >> 6) & 3;
+	}
+
+	/**
+	 * Sets the samples field of FIFO_CTL, between 0 and 31
+	 * in FIFO and stream mode it is the watermark level,
+	 * in trigger mode it is the number of samples kept before the trigger event
+	 * @param samples
+	 * @throws IOException
+	 */
+	public synchronized void setFifoSamples(int samples) throws IOException {
+		if ((samples < 0) || (samples > 31)) {
+			throw new IllegalArgumentException("fifo samples range overflow");
+		}
+		int b = this.readRegister(ADXL345_FIFO_CTL);
+		this.writeTo(ADXL345_FIFO_CTL, samples | (b & 0xe0));
+	}
+
+	/**
+	 * Gets the samples field of FIFO_CTL
+	 * @return
+	 * @throws IOException
+	 */
+	public int getFifoSamples() throws IOException {
+		return this.readRegister(ADXL345_FIFO_CTL) & 0x1f;
+	}
+
+	/**
+	 * Sets the trigger bit of FIFO_CTL, links the trigger event of trigger mode
+	 * to ADXL345_INT1_PIN or ADXL345_INT2_PIN
+	 * @param interruptPin
+	 * @throws IOException
+	 */
+	public void setFifoTriggerPin(int interruptPin) throws IOException {
+		this.setRegisterBit(ADXL345_FIFO_CTL, 5, interruptPin);
+	}
+
+	public int getFifoTriggerPin() throws IOException {
+		return this.getRegisterBit(ADXL345_FIFO_CTL, 5);
+	}
+
+	/**
+	 * Sets mode, trigger pin and samples of FIFO_CTL in a single write
+	 *  eg: setFifo(ADXL345_FIFO_STREAM, 16, ADXL345_INT1_PIN);
+	 * @param mode
+	 * @param samples
+	 * @param interruptPin
+	 * @throws IOException
+	 */
+	public void setFifo(int mode, int samples, int interruptPin) throws IOException {
+		if ((mode < ADXL345_FIFO_BYPASS) || (mode > ADXL345_FIFO_TRIGGER)) {
+			throw new IllegalArgumentException("fifo mode range overflow");
+		}
+		if ((samples < 0) || (samples > 31)) {
+			throw new IllegalArgumentException("fifo samples range overflow");
+		}
+		this.writeTo(ADXL345_FIFO_CTL, (mode << 6) | ((interruptPin > 0) ? 0x20 : 0) | samples);
+	}
+
+	/**
+	 * Gets the number of samples available in the FIFO, between 0 and 33
+	 * @return
+	 * @throws IOException
+	 */
+	public int getFifoEntries() throws IOException {
+		int n = this.readFifoStatus() & 0x3f;
+		if (this._metrics != null) {
+			this._metrics.recordFifoLevel(n);
+		}
+		return n;
+	}
+
+	/**
+	 * Gets the FIFO_TRIG bit, set while a trigger event is held in trigger mode
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isFifoTriggered() throws IOException {
+		return (this.readFifoStatus() & 0x80) != 0;
+	}
+
+	/**
+	 * Drain the samples queued in the FIFO into dst as interleaved x, y, z
+	 * counts. FIFO_STATUS is read once, then every entry is popped with one
+	 * 6-byte burst read of DATAX0 to DATAZ1.
+	 * @param dst  destination, 3 values per sample
+	 * @param offset  index of the first x value in dst
+	 * @param maxSamples  max samples to read, ADXL345_FIFO_MAX_ENTRIES drains all
+	 * @return number of samples read
+	 * @throws IOException
+	 */
+	public int drainFifo(short[] dst, int offset, int maxSamples) throws IOException {
+		if ((offset < 0) || (maxSamples < 0) || (offset + maxSamples * 3 > dst.length)) {
+			throw new IllegalArgumentException("dst range overflow");
+		}
+		int n = this.getFifoEntries();
+		if ((n >= ADXL345_FIFO_MAX_ENTRIES) && (this._metrics != null)) {
+			this._metrics.recordOverrun(); // full, newer samples are lost or overwrite older ones
+		}
+		if (n > maxSamples) {
+			n = maxSamples;
+		}
+		this.readSamples(dst, offset, n);
+		return n;
 	}
 
 	// Used to check if action was triggered in interrupts
@@ -728,7 +1187,7 @@ public class TiADXL345 {
 	 * ADXL345_DATA_READY ADXL345_SINGLE_TAP ADXL345_DOUBLE_TAP ADXL345_ACTIVITY
 	 * ADXL345_INACTIVITY ADXL345_FREE_FALL ADXL345_WATERMARK ADXL345_OVERRUNY
 	 */
-	public int getInterruptSource() throws IOException {
+	public synchronized int getInterruptSource() throws IOException {
 		byte[] buff = this.readFrom(ADXL345_INT_SOURCE, 1);
 		return buff[0] & 0xff;
 	}
@@ -743,6 +1202,25 @@ public class TiADXL345 {
 		return this.getRegisterBit(ADXL345_INT_SOURCE, interruptBit);
 	}
 
+	/**
+	 * Read ACT_TAP_STATUS to INT_SOURCE in one burst, ACT_TAP_STATUS is read
+	 * before reading INT_SOURCE clears the interrupts. BW_RATE to INT_MAP read
+	 * on the way refresh the register cache.
+	 * @return ACT_TAP_STATUS << 16 | INT_ENABLE << 8 | INT_SOURCE
+	 * @throws IOException
+	 */
+	public synchronized int readInterruptStatus() throws IOException {
+		byte[] buff = this.readFrom(ADXL345_ACT_TAP_STATUS, ADXL345_INT_SOURCE - ADXL345_ACT_TAP_STATUS + 1);
+		if (this._cacheEnabled) {
+			for (int a = ADXL345_BW_RATE; a <= ADXL345_INT_MAP; a++) {
+				this._shadow[a] = buff[a - ADXL345_ACT_TAP_STATUS];
+				this._cacheValid |= (1L << a);
+			}
+		}
+		int source = buff[ADXL345_INT_SOURCE - ADXL345_ACT_TAP_STATUS] & 0xff;
+		return ((buff[0] & 0xff) << 16) | ((buff[ADXL345_INT_ENABLE - ADXL345_ACT_TAP_STATUS] & 0xff) << 8) | source;
+	}
+
 	/**
 	 * Interrupt mapping control 
 	 * @param interruptBit
@@ -773,20 +1251,119 @@ public class TiADXL345 {
 	}
 
 	/**
-	 * Set bit of the register 
+	 * Start a configuration transaction, register changes are collected and
+	 * written on commit with one burst write per contiguous register range
+	 *  eg: adxl.beginTransaction().tapThreshold(48).tapDuration(16).commit();
+	 * @return
+	 */
+	public ADXL345Transaction beginTransaction() {
+		return new ADXL345Transaction(this);
+	}
+
+	/**
+	 * Enable or disable the write-through shadow of the configuration registers
+	 * (0x1D-0x2F except ACT_TAP_STATUS, plus DATA_FORMAT and FIFO_CTL).
+	 * When enabled, bit setters and configuration getters are served from memory
+	 * once a register has been read or written, status and data registers are
+	 * always read from the device.
+	 * The shadow is only valid as long as nothing else writes to the device,
+	 * call syncRegisterCache after a reset of the sensor.
+	 * @param enable
+	 */
+	public synchronized void setRegisterCache(boolean enable) {
+		this._cacheEnabled = enable;
+		this._cacheValid = 0;
+	}
+
+	public boolean isRegisterCacheEnabled() {
+		return this._cacheEnabled;
+	}
+
+	/**
+	 * Drop the shadowed values, registers are read again from the device on next
+	 * access
+	 */
+	public synchronized void invalidateRegisterCache() {
+		this._cacheValid = 0;
+	}
+
+	/**
+	 * Reload the shadow from the device with burst reads of THRESH_TAP-TAP_AXES,
+	 * BW_RATE-INT_MAP, DATA_FORMAT and FIFO_CTL
+	 * @throws IOException
+	 */
+	public synchronized void syncRegisterCache() throws IOException {
+		if (!this._cacheEnabled) {
+			return;
+		}
+		this._cacheValid = 0;
+		this.loadRegisterCache(ADXL345_THRESH_TAP, ADXL345_TAP_AXES - ADXL345_THRESH_TAP + 1);
+		this.loadRegisterCache(ADXL345_BW_RATE, ADXL345_INT_MAP - ADXL345_BW_RATE + 1);
+		this.loadRegisterCache(ADXL345_DATA_FORMAT, 1);
+		this.loadRegisterCache(ADXL345_FIFO_CTL, 1);
+	}
+
+	private synchronized void loadRegisterCache(int address, int num) throws IOException {
+		byte[] buff = this.readFrom(address, num);
+		for (int i = 0; i < num; i++) {
+			this._shadow[address + i] = buff[i];
+			this._cacheValid |= (1L << (address + i));
+		}
+		if (address == ADXL345_DATA_FORMAT) {
+			this.updateDataFormat(buff[0] & 0xff);
+		}
+	}
+
+	/**
+	 * Read a register, from the shadow cache when possible
+	 * @param address
+	 * @return register value, 0 to 255
+	 * @throws IOException
+	 */
+	synchronized int readRegister(int address) throws IOException {
+		if (this._cacheEnabled && ((this._cacheValid >> address) & 1) != 0) {
+			return this._shadow[address] & 0xff;
+		}
+		byte[] buff = this.readFrom(address, 1);
+		if (this._cacheEnabled && ((ADXL345_CONFIG_REGS >> address) & 1) != 0) {
+			this._shadow[address] = buff[0];
+			this._cacheValid |= (1L << address);
+		}
+		if (address == ADXL345_DATA_FORMAT) {
+			this.updateDataFormat(buff[0] & 0xff);
+		}
+		return buff[0] & 0xff;
+	}
+
+	/**
+	 * Read num consecutive registers from the device in one burst, the register
+	 * cache is bypassed
+	 * @param address
+	 * @param dst
+	 * @param off
+	 * @param num  1 to 32
+	 * @throws IOException
+	 */
+	synchronized void readRegisters(int address, byte[] dst, int off, int num) throws IOException {
+		byte[] buff = this.readFrom(address, num);
+		System.arraycopy(buff, 0, dst, off, num);
+	}
+
+	/**
+	 * Set bit of the register
 	 * @param regAdress
 	 * @param bitPos
 	 * @param bit
 	 * @throws IOException
 	 */
-	private void setRegisterBit(int regAdress, int bitPos, int bit) throws IOException {
-		byte[] buff = this.readFrom(regAdress, 1);
+	private synchronized void setRegisterBit(int regAdress, int bitPos, int bit) throws IOException {
+		int b = this.readRegister(regAdress);
 		if (bit > 0) {
-			buff[0] |= (1 << bitPos); // forces nth bit of _b to be 1. all other bits left alone.
+			b |= (1 << bitPos); // forces nth bit of _b to be 1. all other bits left alone.
 		} else {
-			buff[0] &= ~(1 << bitPos); // forces nth bit of _b to be 0. all other bits left alone.
+			b &= ~(1 << bitPos); // forces nth bit of _b to be 0. all other bits left alone.
 		}
-		this.writeTo(regAdress, buff[0]);
+		this.writeTo(regAdress, b);
 	}
 
 	/**
@@ -796,9 +1373,8 @@ public class TiADXL345 {
 	 * @return
 	 * @throws IOException
 	 */
-	private int getRegisterBit(int regAdress, int bitPos) throws IOException {
-		byte[] buff = readFrom(regAdress, 1);
-		return ((buff[0] >> bitPos) & 1);
+	private synchronized int getRegisterBit(int regAdress, int bitPos) throws IOException {
+		return ((this.readRegister(regAdress) >> bitPos) & 1);
 	}
 	
 	/**
@@ -807,9 +1383,40 @@ public class TiADXL345 {
 	 * @param val
 	 * @throws IOException
 	 */
-	private void writeTo(int address, int val) throws IOException {
+	private synchronized void writeTo(int address, int val) throws IOException {
 		this._buff[0] = (byte) (val & 0xff);
-		this._i2c.write(ADXL345_DEVICE, address, this._buff, 0, 1);
+		this._transport.write(address, this._buff, 0, 1);
+		if (this._cacheEnabled && ((ADXL345_CONFIG_REGS >> address) & 1) != 0) {
+			this._shadow[address] = this._buff[0];
+			this._cacheValid |= (1L << address);
+		}
+		if (address == ADXL345_DATA_FORMAT) {
+			this.updateDataFormat(val & 0xff);
+		}
+	}
+
+	/**
+	 * Writes num bytes of data to consecutive registers starting from address
+	 * in a single bus transaction
+	 * @param address
+	 * @param data
+	 * @param off
+	 * @param num
+	 * @throws IOException
+	 */
+	synchronized void writeTo(int address, byte[] data, int off, int num) throws IOException {
+		this._transport.write(address, data, off, num);
+		if (this._cacheEnabled) {
+			for (int i = 0; i < num; i++) {
+				if (((ADXL345_CONFIG_REGS >> (address + i)) & 1) != 0) {
+					this._shadow[address + i] = data[off + i];
+					this._cacheValid |= (1L << (address + i));
+				}
+			}
+		}
+		if ((address <= ADXL345_DATA_FORMAT) && (address + num > ADXL345_DATA_FORMAT)) {
+			this.updateDataFormat(data[off + ADXL345_DATA_FORMAT - address] & 0xff);
+		}
 	}
 
 	/**
@@ -819,10 +1426,55 @@ public class TiADXL345 {
 	 * @return
 	 * @throws IOException
 	 */
-	private byte[] readFrom(int address, int num) throws IOException {
-		this._i2c.read(ADXL345_DEVICE, address, this._buff, 0, num);
+	private synchronized byte[] readFrom(int address, int num) throws IOException {
+		this._transport.read(address, this._buff, 0, num);
+		if ((address <= ADXL345_INT_SOURCE) && (address + num > ADXL345_INT_SOURCE)) {
+			this.checkOverrun(this._buff[ADXL345_INT_SOURCE - address]);
+		}
 		return this._buff;
 	}
 
+	/**
+	 * Count OVERRUN of an INT_SOURCE value into the metrics, every INT_SOURCE
+	 * read goes through readFrom and ends here
+	 * @param source
+	 */
+	private void checkOverrun(int source) {
+		if ((this._metrics != null) && ((source >> ADXL345_INT_OVERRUNY_BIT) & 1) != 0) {
+			this._metrics.recordOverrun();
+		}
+	}
+
+	/**
+	 * Read FIFO_STATUS on the sample path, under the lock of _data so that FIFO
+	 * drains never wait for configuration calls
+	 */
+	private int readFifoStatus() throws IOException {
+		synchronized (this._data) {
+			this._transport.read(ADXL345_FIFO_STATUS, this._status, 0, 1);
+			return this._status[0] & 0xff;
+		}
+	}
+
+	/**
+	 * Read DATAX0 to DATAZ1 into _data, counted in the metrics when set,
+	 * call it holding the lock of _data
+	 */
+	private byte[] readData() throws IOException {
+		byte[] buf = this._data;
+		this._transport.read(ADXL345_DATAX0, buf, 0, ADXL345_TO_READ);
+		if (this._metrics != null) {
+			int dup = 1;
+			for (int i = 0; i < ADXL345_TO_READ; i++) {
+				if (this._lastData[i] != buf[i]) {
+					dup = 0;
+					this._lastData[i] = buf[i];
+				}
+			}
+			this._metrics.recordSamples(1, dup);
+		}
+		return buf;
+	}
+
 
 }
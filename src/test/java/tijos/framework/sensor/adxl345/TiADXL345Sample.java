@@ -18,19 +18,30 @@ public class TiADXL345Sample {
 		try {
 			TiI2CMaster i2c0 = TiI2CMaster.open(0);
 
-			TiADXL345 adxl = new TiADXL345(i2c0);
+			//retry bus glitches up to 3 times
+			TiADXL345 adxl = new TiADXL345(new ADXL345RetryTransport(new ADXL345I2CTransport(i2c0), 3, 50, 5000));
 
 			adxl.powerOn();
 
+			//check the device every 10 seconds, restore the configuration when it was lost
+			ADXL345Watchdog watchdog = new ADXL345Watchdog(adxl, 10000);
+			watchdog.captureConfig();
+
 			while (true) {
 				
-				//read acceleration of gravity 
-				double[] xyz_g = adxl.readGxyz();
-				double Gx = xyz_g[0];
-				double Gy = xyz_g[1];
-				double Gz = xyz_g[2];
+				try {
+					watchdog.poll();
+
+					//read acceleration of gravity 
+					double[] xyz_g = adxl.readGxyz();
+					double Gx = xyz_g[0];
+					double Gy = xyz_g[1];
+					double Gz = xyz_g[2];
 				
-				System.out.println("Gx:" + Gx + " Gy:" + Gy + " Gz:" + Gz);
+					System.out.println("Gx:" + Gx + " Gy:" + Gy + " Gz:" + Gz);
+				} catch (IOException ex) {
+					System.out.println("bus error: " + ex.getMessage() + " recovered: " + watchdog.recover());
+				}
 
 				Delay.msDelay(1000);
 			}